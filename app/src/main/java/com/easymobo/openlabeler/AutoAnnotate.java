@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.easymobo.openlabeler;
+
+import com.easymobo.openlabeler.model.Annotation;
+import com.easymobo.openlabeler.model.HintModel;
+import com.easymobo.openlabeler.model.ObjectModel;
+import com.easymobo.openlabeler.preference.Settings;
+import com.easymobo.openlabeler.tensorflow.ObjectDetector;
+import com.easymobo.openlabeler.util.AppUtils;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.Marshaller;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Pre-annotates a media directory without the GUI, using the saved model and label map set in the inference
+ * preferences:
+ * <pre>
+ *     OpenLabeler annotate &lt;media dir&gt;
+ * </pre>
+ * Media files flow through bounded queues from the directory walk, to detector threads which decode and infer them in
+ * batches with {@link ObjectDetector#detect(List)}, to a writer thread which saves Pascal VOC annotations where
+ * {@link AppUtils#getAnnotationFile(File)} resolves. Media files that already have annotations are skipped, and media
+ * files in which nothing was detected are recorded in a journal, so an interrupted run resumes where it stopped.
+ */
+public class AutoAnnotate
+{
+    public static final String COMMAND = "annotate";
+
+    private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getCanonicalName());
+
+    // Media files in which nothing was detected, so they are not detected again when resuming
+    private static final String JOURNAL = ".openlabeler-annotate";
+    // Number of detector threads, so that decoding the next batch overlaps inference of the current one
+    private static final int DETECTOR_THREADS = 2;
+    // Number of batches waiting between stages
+    private static final int QUEUE_CAPACITY = 4;
+    private static final long REPORT_INTERVAL_MILLIS = 5000;
+    // How often the directory walk checks that detector threads are still taking batches
+    private static final long LIVENESS_CHECK_MILLIS = 1000;
+
+    private final File mediaDir;
+    private final ObjectDetector objectDetector = new ObjectDetector();
+    private final JAXBContext jaxbContext;
+
+    private final AtomicInteger annotated = new AtomicInteger(), empty = new AtomicInteger(), failed = new AtomicInteger();
+
+    public static void main(String[] args) {
+        if (args.length != 1 || !new File(args[0]).isDirectory()) {
+            System.err.println("Usage: OpenLabeler " + COMMAND + " <media dir>");
+            System.exit(2);
+        }
+        try {
+            new AutoAnnotate(new File(args[0])).run();
+            System.exit(0);
+        }
+        catch (Exception ex) {
+            LOG.log(Level.SEVERE, "Unable to annotate " + args[0], ex);
+            System.exit(1);
+        }
+    }
+
+    public AutoAnnotate(File mediaDir) throws Exception {
+        this.mediaDir = mediaDir;
+        this.jaxbContext = JAXBContext.newInstance(Annotation.class);
+    }
+
+    public void run() throws Exception {
+        objectDetector.init();
+        // Each media file is detected once and then annotated, so stored detections would never be read
+        objectDetector.setUseDetectionStore(false);
+        try {
+            if (!objectDetector.awaitReady()) {
+                throw new IOException("No saved model or label map, check " + Settings.getTFSavedModelDir()
+                      + " and " + Settings.getTFLabelMapFile());
+            }
+            File journal = new File(mediaDir, JOURNAL);
+            Set<String> done = journal.exists()
+                  ? new HashSet<>(Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8)) : new HashSet<>();
+            File[] files = mediaDir.listFiles((dir, name) -> AppUtils.isMediaExtension(name.toLowerCase()));
+            List<File> pending = Arrays.stream(files == null ? new File[0] : files)
+                  .filter(file -> !AppUtils.getAnnotationFile(file).exists() && !done.contains(file.getName()))
+                  .sorted()
+                  .collect(Collectors.toList());
+            int total = files == null ? 0 : files.length;
+            System.out.println(String.format("%d media files, %d to annotate", total, pending.size()));
+
+            try (PrintWriter journalWriter = new PrintWriter(Files.newBufferedWriter(journal.toPath(), StandardCharsets.UTF_8,
+                  StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+                annotate(pending, journalWriter);
+            }
+        }
+        finally {
+            objectDetector.close();
+        }
+    }
+
+    private void annotate(List<File> pending, PrintWriter journal) throws Exception {
+        BlockingQueue<List<File>> batches = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Detected> detected = new ArrayBlockingQueue<>(QUEUE_CAPACITY * ObjectDetector.MAX_BATCH_SIZE);
+        List<File> endOfBatches = Collections.emptyList();
+        Detected endOfDetections = new Detected(null, null);
+
+        List<Thread> detectors = new ArrayList<>();
+        for (int t = 0; t < DETECTOR_THREADS; t++) {
+            Thread detector = new Thread(() -> {
+                try {
+                    List<File> batch;
+                    while ((batch = batches.take()) != endOfBatches) {
+                        if (!detect(batch, detected, batch.size() == 1)) {
+                            // One bad file fails the whole batch, so the others are retried on their own
+                            for (File file : batch) {
+                                detect(Collections.singletonList(file), detected, true);
+                            }
+                        }
+                    }
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Auto Annotate Detector " + (t + 1));
+            detector.start();
+            detectors.add(detector);
+        }
+
+        Thread writer = new Thread(() -> {
+            long start = System.currentTimeMillis(), lastReport = start;
+            try {
+                Detected item;
+                while ((item = detected.take()) != endOfDetections) {
+                    write(item, journal);
+                    long now = System.currentTimeMillis();
+                    if (now - lastReport >= REPORT_INTERVAL_MILLIS) {
+                        report(pending.size(), now - start);
+                        lastReport = now;
+                    }
+                }
+                report(pending.size(), System.currentTimeMillis() - start);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Auto Annotate Writer");
+        writer.start();
+
+        for (int from = 0; from < pending.size(); from += ObjectDetector.MAX_BATCH_SIZE) {
+            put(batches, new ArrayList<>(pending.subList(from, Math.min(from + ObjectDetector.MAX_BATCH_SIZE, pending.size()))), detectors);
+        }
+        for (Thread detector : detectors) {
+            put(batches, endOfBatches, detectors);
+        }
+        for (Thread detector : detectors) {
+            detector.join();
+        }
+        detected.put(endOfDetections);
+        writer.join();
+    }
+
+    /**
+     * Detects objects in a batch and queues the results for the writer. Any failure is caught, as a dead detector
+     * thread would stall the queue.
+     *
+     * @param countFailure whether the files of a failed batch are counted as failed, rather than retried by the caller
+     * @return true if the batch was detected
+     */
+    private boolean detect(List<File> batch, BlockingQueue<Detected> detected, boolean countFailure)
+          throws InterruptedException {
+        List<List<HintModel>> hints;
+        try {
+            hints = objectDetector.detect(batch);
+        }
+        catch (Exception ex) {
+            if (countFailure) {
+                LOG.log(Level.WARNING, "Unable to detect objects in " + batch, ex);
+                failed.addAndGet(batch.size());
+            }
+            return false;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            detected.put(new Detected(batch.get(i), hints.get(i)));
+        }
+        return true;
+    }
+
+    /**
+     * Queues a batch for the detector threads, failing instead of blocking forever if all of them have died.
+     */
+    private static void put(BlockingQueue<List<File>> batches, List<File> batch, List<Thread> detectors)
+          throws InterruptedException, IOException {
+        while (!batches.offer(batch, LIVENESS_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (detectors.stream().noneMatch(Thread::isAlive)) {
+                throw new IOException("All detector threads have stopped");
+            }
+        }
+    }
+
+    private void write(Detected item, PrintWriter journal) {
+        try {
+            if (item.hints.isEmpty()) {
+                // The detector gives no hints for files it has no image reader for, which are not journaled
+                if (ObjectDetector.readImageSize(item.file) == null) {
+                    throw new IOException("Unable to read " + item.file);
+                }
+                journal.println(item.file.getName());
+                journal.flush();
+                empty.incrementAndGet();
+                return;
+            }
+            Dimension size = ObjectDetector.readImageSize(item.file);
+            if (size == null) {
+                throw new IOException("Unable to read " + item.file);
+            }
+            Annotation annotation = new Annotation();
+            annotation.setFile(item.file);
+            annotation.getSize().setWidth(size.width);
+            annotation.getSize().setHeight(size.height);
+            List<ObjectModel> objects = new ArrayList<>();
+            for (HintModel hint : item.hints) {
+                objects.add(new ObjectModel(hint.getName(), hint.getBoundBox().getXMin(), hint.getBoundBox().getYMin(),
+                      hint.getBoundBox().getXMax(), hint.getBoundBox().getYMax()));
+            }
+            annotation.setObjects(objects);
+
+            Marshaller marshaller = jaxbContext.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+
+            // Write to a temporary file first, so that a crash never leaves a partial annotation behind
+            File xmlFile = AppUtils.getAnnotationFile(item.file);
+            if (xmlFile.getParentFile() != null) {
+                xmlFile.getParentFile().mkdirs();
+            }
+            Path temp = Files.createTempFile(xmlFile.getAbsoluteFile().getParentFile().toPath(), xmlFile.getName(), ".tmp");
+            marshaller.marshal(annotation, temp.toFile());
+            Files.move(temp, xmlFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            annotated.incrementAndGet();
+        }
+        catch (Exception ex) {
+            LOG.log(Level.WARNING, "Unable to annotate " + item.file, ex);
+            failed.incrementAndGet();
+        }
+    }
+
+    private void report(int total, long elapsedMillis) {
+        int processed = annotated.get() + empty.get() + failed.get();
+        double rate = elapsedMillis > 0 ? processed * 1000.0 / elapsedMillis : 0;
+        System.out.println(String.format("%d/%d processed (%d annotated, %d without objects, %d failed), %.1f files/s",
+              processed, total, annotated.get(), empty.get(), failed.get(), rate));
+    }
+
+    private static class Detected
+    {
+        private final File file;
+        private final List<HintModel> hints;
+
+        private Detected(File file, List<HintModel> hints) {
+            this.file = file;
+            this.hints = hints;
+        }
+    }
+}
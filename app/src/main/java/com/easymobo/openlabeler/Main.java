@@ -19,12 +19,18 @@ package com.easymobo.openlabeler;
 
 import org.apache.commons.lang3.SystemUtils;
 
+import java.util.Arrays;
+
 public class Main
 {
     public static void main(String[] args) {
         if (SystemUtils.IS_OS_MAC) {
             //Desktop.getDesktop();
         }
+        if (args.length > 0 && AutoAnnotate.COMMAND.equals(args[0])) {
+            AutoAnnotate.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         OpenLabeler.main(args);
     }
 }
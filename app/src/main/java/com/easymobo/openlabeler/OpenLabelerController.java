@@ -512,6 +512,13 @@ public class OpenLabelerController implements Initializable, AutoCloseable
             }
         });
 
+        // Look ahead and detect objects in the next media files
+        mediaPane.getSelectionModel().selectedIndexProperty().addListener((observable, oldValue, newValue) -> {
+            if (Settings.getHintPrefetchCount() > 0) {
+                tagBoard.prefetchHints(mediaPane.getNextMediaFiles(Settings.getHintPrefetchCount()));
+            }
+        });
+
         BooleanBinding hasPrev = mediaPane.sizeProperty().greaterThan(1).and(mediaPane.getSelectionModel().selectedIndexProperty().greaterThan(0));
         miPrevMediaFile.disableProperty().bind(hasPrev.not());
 
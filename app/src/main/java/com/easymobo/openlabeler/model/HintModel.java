@@ -34,4 +34,13 @@ public class HintModel extends ObjectModel
     public void setScore(float score) {
         this.score = score;
     }
+
+    @Override
+    public Object clone() {
+        HintModel model = new HintModel();
+        model.setName(getName());
+        model.setBoundBox((BoundBox)getBoundBox().clone());
+        model.setScore(score);
+        return model;
+    }
 }
@@ -18,6 +18,7 @@
 package com.easymobo.openlabeler.preference;
 
 import com.easymobo.openlabeler.ui.InputFileChooser;
+import com.easymobo.openlabeler.util.AppUtils;
 import javafx.beans.binding.BooleanBinding;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
@@ -26,6 +27,8 @@ import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ColorPicker;
+import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
 import javafx.scene.layout.VBox;
 import org.fxmisc.easybind.EasyBind;
 
@@ -42,6 +45,11 @@ public class InferencePane extends VBox implements Category
     private ColorPicker pickerHintStrokeColor;
     @FXML
     private InputFileChooser fileTFLabelMap, dirTFSavedModel;
+    @FXML
+    private TextField txtInferenceThreads, txtHintPrefetchCount, txtInferenceMaxSide, txtInferenceTileSize,
+            txtHintMinScore, txtHintMaxPerClass;
+    @FXML
+    private TextArea txtEnsembleModels;
 
     private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getCanonicalName());
 
@@ -60,12 +68,26 @@ public class InferencePane extends VBox implements Category
             LOG.log(Level.SEVERE, "Unable to load FXML", ex);
         }
 
+        txtInferenceThreads.setTextFormatter(AppUtils.createNumberTextFormatter());
+        txtHintPrefetchCount.setTextFormatter(AppUtils.createNumberTextFormatter());
+        txtInferenceMaxSide.setTextFormatter(AppUtils.createNumberTextFormatter());
+        txtInferenceTileSize.setTextFormatter(AppUtils.createNumberTextFormatter());
+        txtHintMinScore.setTextFormatter(AppUtils.createNumberTextFormatter());
+        txtHintMaxPerClass.setTextFormatter(AppUtils.createNumberTextFormatter());
+
         // Bind Properties
         BooleanBinding changes[] = {
                 chkUseInference.selectedProperty().isNotEqualTo(Settings.useInferenceProperty),
                 pickerHintStrokeColor.valueProperty().isNotEqualTo(Settings.hintStrokeColorProperty),
                 fileTFLabelMap.textProperty().isNotEqualTo(Settings.tfLabelMapFileProperty),
                 dirTFSavedModel.textProperty().isNotEqualTo(Settings.tfSavedModelDirProperty),
+                txtInferenceThreads.textProperty().isNotEqualTo(Settings.inferenceThreadsProperty.asString()),
+                txtHintPrefetchCount.textProperty().isNotEqualTo(Settings.hintPrefetchCountProperty.asString()),
+                txtInferenceMaxSide.textProperty().isNotEqualTo(Settings.inferenceMaxSideProperty.asString()),
+                txtInferenceTileSize.textProperty().isNotEqualTo(Settings.inferenceTileSizeProperty.asString()),
+                txtHintMinScore.textProperty().isNotEqualTo(Settings.hintMinScoreProperty.asString()),
+                txtHintMaxPerClass.textProperty().isNotEqualTo(Settings.hintMaxPerClassProperty.asString()),
+                txtEnsembleModels.textProperty().isNotEqualTo(Settings.tfEnsembleModelsProperty),
         };
         dirtyProperty.bind(EasyBind.combine(
                 FXCollections.observableArrayList(changes), stream -> stream.reduce((a, b) -> a | b).orElse(false)));
@@ -92,6 +114,13 @@ public class InferencePane extends VBox implements Category
         pickerHintStrokeColor.setValue(Settings.getHintStrokeColor());
         fileTFLabelMap.setText(Settings.getTFLabelMapFile());
         dirTFSavedModel.setText(Settings.getTFSavedModelDir());
+        txtInferenceThreads.setText(String.valueOf(Settings.getInferenceThreads()));
+        txtHintPrefetchCount.setText(String.valueOf(Settings.getHintPrefetchCount()));
+        txtInferenceMaxSide.setText(String.valueOf(Settings.getInferenceMaxSide()));
+        txtInferenceTileSize.setText(String.valueOf(Settings.getInferenceTileSize()));
+        txtHintMinScore.setText(String.valueOf(Settings.getHintMinScore()));
+        txtHintMaxPerClass.setText(String.valueOf(Settings.getHintMaxPerClass()));
+        txtEnsembleModels.setText(Settings.getTFEnsembleModels());
     }
 
     @Override
@@ -103,5 +132,12 @@ public class InferencePane extends VBox implements Category
         Settings.setHintStrokeColor(pickerHintStrokeColor.getValue());
         Settings.setTFLabelMapFile(fileTFLabelMap.getText());
         Settings.setTFSavedModelDir(dirTFSavedModel.getText());
+        Settings.setInferenceThreads(Integer.valueOf(txtInferenceThreads.getText()));
+        Settings.setHintPrefetchCount(Integer.valueOf(txtHintPrefetchCount.getText()));
+        Settings.setInferenceMaxSide(Integer.valueOf(txtInferenceMaxSide.getText()));
+        Settings.setInferenceTileSize(Integer.valueOf(txtInferenceTileSize.getText()));
+        Settings.setHintMinScore(Math.min(100, Integer.valueOf(txtHintMinScore.getText())));
+        Settings.setHintMaxPerClass(Integer.valueOf(txtHintMaxPerClass.getText()));
+        Settings.setTFEnsembleModels(txtEnsembleModels.getText());
     }
 }
@@ -25,6 +25,7 @@ import com.easymobo.openlabeler.util.Colors;
 import javafx.beans.property.*;
 import javafx.collections.FXCollections;
 import javafx.scene.paint.Color;
+import org.tensorflow.hadoop.util.TFRecordCompression;
 
 import java.util.Collection;
 import java.util.prefs.Preferences;
@@ -47,6 +48,12 @@ public class Settings
     private static final String TF_DATA_DIR = "tfDataDir";
     private static final String TF_BASE_MODEL_DIR = "tfBaseModelDir";
     private static final String TF_TRAIN_BATCH_SIZE = "tfTrainBatchSize";
+    private static final String TF_RECORD_SHARDS = "tfRecordShards";
+    private static final String TF_EVAL_PERCENT = "tfEvalPercent";
+    private static final String TF_IMAGE_MAX_SIDE = "tfImageMaxSide";
+    private static final String TF_JPEG_QUALITY = "tfJpegQuality";
+    private static final String TF_DEDUP_NEAR_DUPLICATES = "tfDedupNearDuplicates";
+    private static final String TF_RECORD_COMPRESSION = "tfRecordCompression";
     private static final String DOCKER_IMAGE = "dockerImage";
     private static final String CONTAINER_HOST_NAME = "containerHostName";
     private static final String CONTAINER_NAME = "containerName";
@@ -55,6 +62,13 @@ public class Settings
     private static final String TF_LABEL_MAP_FILE = "tfLabelMapFile";
     private static final String TF_SAVED_MODEL_DIR = "tfSavedModelDir";
     private static final String HINT_STROKE_COLOR = "hintBoxColor";
+    private static final String INFERENCE_THREADS = "inferenceThreads";
+    private static final String HINT_PREFETCH_COUNT = "hintPrefetchCount";
+    private static final String INFERENCE_MAX_SIDE = "inferenceMaxSide";
+    private static final String INFERENCE_TILE_SIZE = "inferenceTileSize";
+    private static final String HINT_MIN_SCORE = "hintMinScore";
+    private static final String HINT_MAX_PER_CLASS = "hintMaxPerClass";
+    private static final String TF_ENSEMBLE_MODELS = "tfEnsembleModels";
     // Tools
     private static final String TOOL_COCO_JSON = "toolCOCOJson";
     private static final String TOOL_CREATEML_JSON = "toolCreateML";
@@ -173,6 +187,60 @@ public class Settings
         tfTrainBatchSizeProperty.set(size);
     }
 
+    // Number of files the train and eval records are each split into
+    public static final IntegerProperty tfRecordShardsProperty = new IntegerPrefProperty(pref, TF_RECORD_SHARDS, 1);
+    public static int getTFRecordShards() {
+        return tfRecordShardsProperty.get();
+    }
+    public static void setTFRecordShards(int shards) {
+        tfRecordShardsProperty.set(shards);
+    }
+
+    // Percentage of examples set aside for evaluation
+    public static final IntegerProperty tfEvalPercentProperty = new IntegerPrefProperty(pref, TF_EVAL_PERCENT, 30);
+    public static int getTFEvalPercent() {
+        return tfEvalPercentProperty.get();
+    }
+    public static void setTFEvalPercent(int percent) {
+        tfEvalPercentProperty.set(percent);
+    }
+
+    // Images larger than this are downsized and re-encoded in the records, 0 to embed images as they are
+    public static final IntegerProperty tfImageMaxSideProperty = new IntegerPrefProperty(pref, TF_IMAGE_MAX_SIDE, 0);
+    public static int getTFImageMaxSide() {
+        return tfImageMaxSideProperty.get();
+    }
+    public static void setTFImageMaxSide(int side) {
+        tfImageMaxSideProperty.set(side);
+    }
+
+    // JPEG quality of images re-encoded in the records
+    public static final IntegerProperty tfJpegQualityProperty = new IntegerPrefProperty(pref, TF_JPEG_QUALITY, 90);
+    public static int getTFJpegQuality() {
+        return tfJpegQualityProperty.get();
+    }
+    public static void setTFJpegQuality(int quality) {
+        tfJpegQualityProperty.set(quality);
+    }
+
+    // Drop images that look nearly the same as another, in addition to identical images
+    public static final BooleanProperty tfDedupNearDuplicatesProperty = new BooleanPrefProperty(pref, TF_DEDUP_NEAR_DUPLICATES, false);
+    public static boolean isTFDedupNearDuplicates() {
+        return tfDedupNearDuplicatesProperty.get();
+    }
+    public static void setTFDedupNearDuplicates(boolean dedup) {
+        tfDedupNearDuplicatesProperty.set(dedup);
+    }
+
+    // Compression of the record files, the Object Detection API only reads them uncompressed
+    public static final StringProperty tfRecordCompressionProperty = new StringPrefProperty(pref, TF_RECORD_COMPRESSION, TFRecordCompression.NONE.name());
+    public static TFRecordCompression getTFRecordCompression() {
+        return TFRecordCompression.valueOf(tfRecordCompressionProperty.get());
+    }
+    public static void setTFRecordCompression(TFRecordCompression compression) {
+        tfRecordCompressionProperty.set(compression.name());
+    }
+
     // Docker Image
     public static final StringProperty dockerImageProperty = new StringPrefProperty(pref, DOCKER_IMAGE, "kinhong/openlabeler:tf-2.3.1");
     public static String getDockerImage() {
@@ -245,6 +313,71 @@ public class Settings
         tfSavedModelDirProperty.set(dir);
     }
 
+    // Number of concurrent inference workers
+    public static final IntegerProperty inferenceThreadsProperty = new IntegerPrefProperty(pref, INFERENCE_THREADS,
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    public static int getInferenceThreads() {
+        return inferenceThreadsProperty.get();
+    }
+    public static void setInferenceThreads(int threads) {
+        inferenceThreadsProperty.set(threads);
+    }
+
+    // Number of media files to detect objects in ahead of the selected one
+    public static final IntegerProperty hintPrefetchCountProperty = new IntegerPrefProperty(pref, HINT_PREFETCH_COUNT, 3);
+    public static int getHintPrefetchCount() {
+        return hintPrefetchCountProperty.get();
+    }
+    public static void setHintPrefetchCount(int count) {
+        hintPrefetchCountProperty.set(count);
+    }
+
+    // Longest side images are downscaled to before inference, 0 to feed images at full resolution
+    public static final IntegerProperty inferenceMaxSideProperty = new IntegerPrefProperty(pref, INFERENCE_MAX_SIDE, 1024);
+    public static int getInferenceMaxSide() {
+        return inferenceMaxSideProperty.get();
+    }
+    public static void setInferenceMaxSide(int maxSide) {
+        inferenceMaxSideProperty.set(maxSide);
+    }
+
+    // Size of the tiles larger images are sliced into for inference, 0 to disable sliced inference
+    public static final IntegerProperty inferenceTileSizeProperty = new IntegerPrefProperty(pref, INFERENCE_TILE_SIZE, 0);
+    public static int getInferenceTileSize() {
+        return inferenceTileSizeProperty.get();
+    }
+    public static void setInferenceTileSize(int tileSize) {
+        inferenceTileSizeProperty.set(tileSize);
+    }
+
+    // Minimum score in percent for a detected object to be shown as a hint
+    public static final IntegerProperty hintMinScoreProperty = new IntegerPrefProperty(pref, HINT_MIN_SCORE, 50);
+    public static int getHintMinScore() {
+        return hintMinScoreProperty.get();
+    }
+    public static void setHintMinScore(int score) {
+        hintMinScoreProperty.set(score);
+    }
+
+    // Maximum number of hints shown for each label, 0 for no limit
+    public static final IntegerProperty hintMaxPerClassProperty = new IntegerPrefProperty(pref, HINT_MAX_PER_CLASS, 20);
+    public static int getHintMaxPerClass() {
+        return hintMaxPerClassProperty.get();
+    }
+    public static void setHintMaxPerClass(int count) {
+        hintMaxPerClassProperty.set(count);
+    }
+
+    // Additional saved models run together with the TensorFlow saved model, one "<saved model dir>;<label map file>"
+    // per line
+    public static final StringProperty tfEnsembleModelsProperty = new StringPrefProperty(pref, TF_ENSEMBLE_MODELS, "");
+    public static String getTFEnsembleModels() {
+        return tfEnsembleModelsProperty.get();
+    }
+    public static void setTFEnsembleModels(String models) {
+        tfEnsembleModelsProperty.set(models);
+    }
+
     // Tools
     public static final StringProperty toolCOCOJson = new StringPrefProperty(pref, TOOL_COCO_JSON, "");
     public static String getToolCOCOJson() {
@@ -16,6 +16,7 @@
 
 package com.easymobo.openlabeler.preference;
 
+import com.easymobo.openlabeler.tensorflow.TFRecordValidator;
 import com.easymobo.openlabeler.tensorflow.TFTrainer;
 import com.easymobo.openlabeler.ui.InputFileChooser;
 import com.easymobo.openlabeler.util.AppUtils;
@@ -31,12 +32,16 @@ import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import org.fxmisc.easybind.EasyBind;
 import org.kordamp.ikonli.javafx.FontIcon;
+import org.tensorflow.hadoop.util.TFRecordCompression;
 
 import java.io.File;
 import java.io.IOException;
@@ -54,21 +59,27 @@ public class TrainingPane extends VBox implements Category
     @FXML
     private InputFileChooser dirTFImage, dirTFAnnotation, dirTFData, dirTFBaseModel;
     @FXML
-    private TextField txtTrainBatchSize, txtDockerImage, txtContainerHostName, txtContainerName;
+    private TextField txtRecordShards, txtEvalPercent, txtImageMaxSide, txtJpegQuality, txtTrainBatchSize, txtDockerImage, txtContainerHostName, txtContainerName;
     @FXML
     private LabelMapPane labelMapPane;
     @FXML
-    private Label labelNumSamples, labelModelType, labelTrainCkpt, labelDockerProcess;
+    private CheckBox chkDedupNearDuplicates;
+    @FXML
+    private ChoiceBox<String> choiceRecordCompression;
+    @FXML
+    private Label labelNumSamples, labelRecordStats, labelCompressionWarn, labelModelType, labelTrainCkpt, labelDockerProcess;
     @FXML
     private FontIcon iconWarn;
     @FXML
-    private Button btnCreateTrainData;
+    private Button btnCreateTrainData, btnValidateRecords;
     @FXML
     private HBox boxTrain;
 
     private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getCanonicalName());
 
     private final BooleanProperty dirtyProperty =  new SimpleBooleanProperty(false);
+    // Whether the chosen record compression keeps the trainer from reading the records
+    private BooleanBinding untrainable;
     private ResourceBundle bundle = ResourceBundle.getBundle("bundle");
 
     private TFTrainer.PipelineConfig config;
@@ -85,6 +96,11 @@ public class TrainingPane extends VBox implements Category
             LOG.log(Level.SEVERE, "Unable to load FXML", ex);
         }
 
+        Arrays.stream(TFRecordCompression.values()).forEach(compression -> choiceRecordCompression.getItems().add(compression.name()));
+        untrainable = Bindings.createBooleanBinding(() -> choiceRecordCompression.getValue() != null
+                && !TFTrainer.isReadableByTrainer(TFRecordCompression.valueOf(choiceRecordCompression.getValue())),
+                choiceRecordCompression.valueProperty());
+        labelCompressionWarn.visibleProperty().bind(untrainable);
         bindProperties();
         load();
     }
@@ -113,6 +129,12 @@ public class TrainingPane extends VBox implements Category
         dirTFImage.setText(Settings.getTFImageDir());
         dirTFAnnotation.setText(Settings.getTFAnnotationDir());
         dirTFData.setText(Settings.getTFDataDir());
+        txtRecordShards.setText(String.valueOf(Settings.getTFRecordShards()));
+        txtEvalPercent.setText(String.valueOf(Settings.getTFEvalPercent()));
+        txtImageMaxSide.setText(String.valueOf(Settings.getTFImageMaxSide()));
+        txtJpegQuality.setText(String.valueOf(Settings.getTFJpegQuality()));
+        chkDedupNearDuplicates.setSelected(Settings.isTFDedupNearDuplicates());
+        choiceRecordCompression.setValue(Settings.getTFRecordCompression().name());
         dirTFBaseModel.setText(Settings.getTFBaseModelDir());
         txtTrainBatchSize.setText(String.valueOf(Settings.getTFTrainBatchSize()));
         txtDockerImage.setText(Settings.getDockerImage());
@@ -128,6 +150,12 @@ public class TrainingPane extends VBox implements Category
         Settings.setTFImageDir(dirTFImage.getText());
         Settings.setTFAnnotationDir(dirTFAnnotation.getText());
         Settings.setTFDataDir(dirTFData.getText());
+        Settings.setTFRecordShards(Integer.valueOf(txtRecordShards.getText()));
+        Settings.setTFEvalPercent(Integer.valueOf(txtEvalPercent.getText()));
+        Settings.setTFImageMaxSide(Integer.valueOf(txtImageMaxSide.getText()));
+        Settings.setTFJpegQuality(Integer.valueOf(txtJpegQuality.getText()));
+        Settings.setTFDedupNearDuplicates(chkDedupNearDuplicates.isSelected());
+        Settings.setTFRecordCompression(TFRecordCompression.valueOf(choiceRecordCompression.getValue()));
         Settings.setTFBaseModelDir(dirTFBaseModel.getText());
         Settings.setTFTrainBatchSize(Integer.valueOf(txtTrainBatchSize.getText()));
         Settings.setDockerImage(txtDockerImage.getText());
@@ -146,6 +174,12 @@ public class TrainingPane extends VBox implements Category
         Settings.setTFImageDir(dirTFImage.getText());
         Settings.setTFAnnotationDir(dirTFAnnotation.getText());
         Settings.setTFDataDir(dirTFData.getText());
+        Settings.setTFRecordShards(Math.max(1, Integer.valueOf(txtRecordShards.getText())));
+        Settings.setTFEvalPercent(Math.min(100, Integer.valueOf(txtEvalPercent.getText())));
+        Settings.setTFImageMaxSide(Integer.valueOf(txtImageMaxSide.getText()));
+        Settings.setTFJpegQuality(Math.max(1, Math.min(100, Integer.valueOf(txtJpegQuality.getText()))));
+        Settings.setTFDedupNearDuplicates(chkDedupNearDuplicates.isSelected());
+        Settings.setTFRecordCompression(TFRecordCompression.valueOf(choiceRecordCompression.getValue()));
         File dataDir = new File(Settings.getTFDataDir());
         if (dataDir.isDirectory() && dataDir.exists()) {
             var res = AppUtils.showConfirmation(bundle.getString("label.alert"), bundle.getString("msg.confirmCreateTrainData"));
@@ -159,6 +193,22 @@ public class TrainingPane extends VBox implements Category
         btnCreateTrainData.setDisable(false);
     }
 
+    public void onValidateRecords(ActionEvent actionEvent) {
+        btnValidateRecords.setDisable(true);
+        labelRecordStats.setText("");
+        labelRecordStats.setTooltip(null);
+        String dataDir = dirTFData.getText();
+        new Thread(() -> {
+            var report = TFRecordValidator.validate(TFRecordValidator.findRecordFiles(dataDir));
+            Platform.runLater(() -> {
+                labelRecordStats.setText(MessageFormat.format(bundle.getString("msg.recordStats"), report.getRecords(),
+                        report.getCorruptRecords(), report.getBoxes(), report.getInvalidBoxes()));
+                labelRecordStats.setTooltip(new Tooltip(report.toString()));
+                btnValidateRecords.setDisable(false);
+            });
+        }, "Record Validator").start();
+    }
+
     private void bindProperties() {
         // Update on any directory changes
         dirTFImage.textProperty().addListener((observable, oldValue, newValue) -> updateNumSamples());
@@ -166,12 +216,22 @@ public class TrainingPane extends VBox implements Category
         dirTFData.textProperty().addListener((observable, oldValue, newValue) -> updateLabelMap());
         dirTFBaseModel.textProperty().addListener((observable, oldValue, newValue) -> updateTraining());
 
+        txtRecordShards.setTextFormatter(AppUtils.createNumberTextFormatter());
+        txtEvalPercent.setTextFormatter(AppUtils.createNumberTextFormatter());
+        txtImageMaxSide.setTextFormatter(AppUtils.createNumberTextFormatter());
+        txtJpegQuality.setTextFormatter(AppUtils.createNumberTextFormatter());
         txtTrainBatchSize.setTextFormatter(AppUtils.createNumberTextFormatter());
 
         BooleanBinding changes[] = {
                 dirTFImage.textProperty().isNotEqualTo(Settings.tfImageDirProperty),
                 dirTFAnnotation.textProperty().isNotEqualTo(Settings.tfAnnotationDirProperty),
                 dirTFData.textProperty().isNotEqualTo(Settings.tfDataDirProperty),
+                txtRecordShards.textProperty().isNotEqualTo(Settings.tfRecordShardsProperty.asString()),
+                txtEvalPercent.textProperty().isNotEqualTo(Settings.tfEvalPercentProperty.asString()),
+                txtImageMaxSide.textProperty().isNotEqualTo(Settings.tfImageMaxSideProperty.asString()),
+                txtJpegQuality.textProperty().isNotEqualTo(Settings.tfJpegQualityProperty.asString()),
+                chkDedupNearDuplicates.selectedProperty().isNotEqualTo(Settings.tfDedupNearDuplicatesProperty),
+                choiceRecordCompression.valueProperty().isNotEqualTo(Settings.tfRecordCompressionProperty),
                 new SimpleListProperty(labelMapPane.getItems()).isNotEqualTo(
                         FXCollections.observableList(TFTrainer.getLabelMapItems(dirTFData.getText()))),
                 dirTFBaseModel.textProperty().isNotEqualTo(Settings.tfBaseModelDirProperty),
@@ -232,15 +292,17 @@ public class TrainingPane extends VBox implements Category
                 else {
                     Button btn1 = new Button(bundle.getString("label.continueTrain"));
                     btn1.setOnAction(event -> train(true, false));
+                    btn1.disableProperty().bind(untrainable);
                     Button btn2 = new Button(bundle.getString("label.restartTrain"));
                     btn2.setOnAction(event -> train(true, true));
+                    btn2.disableProperty().bind(untrainable);
                     buttons.addAll(Arrays.asList(btn1, btn2));
                 }
             }
             else {
                 Button btn = new Button(bundle.getString("label.startTrain"));
                 btn.setOnAction(event -> train(true, true));
-                btn.disableProperty().bind(Bindings.or(dirTFData.textProperty().isEmpty(), Bindings.or(dirTFImage.textProperty().isEmpty(), dirTFAnnotation.textProperty().isEmpty())));
+                btn.disableProperty().bind(Bindings.or(dirTFData.textProperty().isEmpty(), Bindings.or(dirTFImage.textProperty().isEmpty(), dirTFAnnotation.textProperty().isEmpty())).or(untrainable));
                 buttons.add(btn);
             }
 
@@ -264,6 +326,10 @@ public class TrainingPane extends VBox implements Category
 
     private void train(boolean start, boolean restart) {
         save();
+        if (start && !TFTrainer.isReadableByTrainer(Settings.getTFRecordCompression())) {
+            AppUtils.showInformation(bundle.getString("label.alert"), bundle.getString("msg.recordCompressionNoTrain"));
+            return;
+        }
         TFTrainer.train(start, restart);
         AppUtils.showInformation(bundle.getString("label.alert"),
                 bundle.getString(start ? (restart ? "msg.startTrain" : "msg.continueTrain") : "msg.stopTrain"));
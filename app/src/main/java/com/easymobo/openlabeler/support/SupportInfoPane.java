@@ -16,6 +16,7 @@
 
 package com.easymobo.openlabeler.support;
 
+import com.easymobo.openlabeler.tensorflow.InferenceMetrics;
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -100,6 +101,10 @@ public class SupportInfoPane extends DialogPane
         sb.append(System.lineSeparator());
         sb.append(System.lineSeparator());
 
+        sb.append("Inference latencies:").append(System.lineSeparator());
+        sb.append(InferenceMetrics.summary());
+        sb.append(System.lineSeparator());
+
         Properties props = System.getProperties();
         List<String> keys = new ArrayList(props.keySet());
         Collections.sort(keys);
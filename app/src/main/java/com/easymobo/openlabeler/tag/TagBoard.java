@@ -22,6 +22,9 @@ import com.easymobo.openlabeler.model.HintModel;
 import com.easymobo.openlabeler.model.ObjectModel;
 import com.easymobo.openlabeler.preference.NameColor;
 import com.easymobo.openlabeler.preference.Settings;
+import com.easymobo.openlabeler.tensorflow.HintPrefetcher;
+import com.easymobo.openlabeler.tensorflow.InferenceMetrics;
+import com.easymobo.openlabeler.tensorflow.InferenceMetrics.Stage;
 import com.easymobo.openlabeler.tensorflow.ObjectDetector;
 import com.easymobo.openlabeler.ui.NameEditor;
 import com.easymobo.openlabeler.util.AppUtils;
@@ -53,6 +56,7 @@ import javafx.scene.transform.Scale;
 import javafx.scene.transform.TransformChangedEvent;
 import javafx.scene.transform.Translate;
 
+import java.io.File;
 import java.lang.invoke.MethodHandles;
 import java.text.MessageFormat;
 import java.util.*;
@@ -85,7 +89,8 @@ public class TagBoard extends Group implements AutoCloseable
    private Scale scale;
    private Rotate rotate;
    private ContextMenu contextMenu;
-   private ObjectDetector objectDetector;
+   private volatile ObjectDetector objectDetector;
+   private final HintPrefetcher hintPrefetcher = new HintPrefetcher(this::getObjectDetector);
    private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
    // Root model
@@ -641,36 +646,39 @@ public class TagBoard extends Group implements AutoCloseable
       hintTag.setVisible(false);
    }
 
+   private synchronized ObjectDetector getObjectDetector() {
+      // Object detector and hints
+      if (objectDetector == null) {
+         objectDetector = new ObjectDetector();
+         objectDetector.init();
+         objectDetector.statusProperty().addListener((observable, oldValue, newValue) -> statusProperty.set(newValue));
+      }
+      return objectDetector;
+   }
+
    private void findHints() {
       if (!Settings.isUseInference()) {
          return;
       }
+      final Annotation model = getModel();
+      if (model == null) {
+         return;
+      }
+      // Prefetched hints can be shown right away
+      List<HintModel> cached = objectDetector == null ? null : objectDetector.getCachedHints(model.getFile());
+      if (cached != null) {
+         showHints(model, cached);
+         return;
+      }
       new Thread(() -> {
-         try {
-            // Object detector and hints
-            if (objectDetector == null) {
-               objectDetector = new ObjectDetector();
-               objectDetector.init();
-               objectDetector.statusProperty().addListener((observable, oldValue, newValue) -> statusProperty.set(newValue));
-            }
-
-            final Annotation model = getModel();
-            if (model != null) {
-               List<HintModel> hints = objectDetector.detect(model.getFile());
-               Platform.runLater(() -> {
-                  if (getModel() != model) {
-                     return;
-                  }
-                  hints.forEach(hint -> createHintTag(hint));
-                  if (model.getObjects().size() > 0) {
-                     clearHints();
-                  }
-                  else {
-                     statusProperty.set(MessageFormat.format(bundle.getString("msg.detectedObjects"), hints.size()));
-                     showHints();
-                  }
-               });
+         try (InferenceMetrics.Timer timer = InferenceMetrics.start(Stage.FIND_HINTS)) {
+            // Join a prefetch already detecting this file rather than running the model on it twice
+            List<HintModel> hints = hintPrefetcher.await(model.getFile()) ? getObjectDetector().getCachedHints(model.getFile()) : null;
+            if (hints == null) {
+               hints = getObjectDetector().detect(model.getFile());
             }
+            List<HintModel> found = hints;
+            Platform.runLater(() -> showHints(model, found));
          }
          catch (Exception ex) {
             LOG.log(Level.WARNING, "Fail to detect", ex);
@@ -678,6 +686,32 @@ public class TagBoard extends Group implements AutoCloseable
       }, "Object Detector").start();
    }
 
+   private void showHints(Annotation model, List<HintModel> hints) {
+      if (getModel() != model) {
+         return;
+      }
+      hints.forEach(hint -> createHintTag(hint));
+      if (model.getObjects().size() > 0) {
+         clearHints();
+      }
+      else {
+         statusProperty.set(MessageFormat.format(bundle.getString("msg.detectedObjects"), hints.size()));
+         showHints();
+      }
+   }
+
+   /**
+    * Detects objects in the media files that are likely to be opened next in the background
+    *
+    * @param files the media files, in the order they would be opened
+    */
+   public void prefetchHints(List<File> files) {
+      if (!Settings.isUseInference() || files.isEmpty()) {
+         return;
+      }
+      hintPrefetcher.prefetch(files);
+   }
+
    private String getCoordinates(ShapeItem shape) {
       if (shape == null) {
          return "";
@@ -689,6 +723,7 @@ public class TagBoard extends Group implements AutoCloseable
 
    @Override
    public void close() {
+      hintPrefetcher.close();
       Optional.ofNullable(objectDetector).ifPresent(obj -> obj.close());
       scheduler.shutdown();
    }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.easymobo.openlabeler.tensorflow;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Finds examples whose images are duplicates of other examples, so that they are neither trained on twice nor leak
+ * into eval. Images with the same SHA-256 are exact duplicates; images whose perceptual hashes differ in a few bits,
+ * such as consecutive video frames, are near duplicates.
+ */
+public class Deduplicator
+{
+    // Perceptual hashes of near duplicates differ in at most this many of their 64 bits
+    private static final int MAX_DISTANCE = 4;
+    // With more bands than differing bits, near duplicates are identical in at least one band
+    private static final int BANDS = MAX_DISTANCE + 1;
+    private static final int BAND_BITS = (64 + BANDS - 1) / BANDS;
+    // Side images are subsampled to while decoding, before they are reduced to 9x8 pixels
+    private static final int DECODE_SIDE = 64;
+
+    private final Set<String> duplicates = new HashSet<>();
+    private int exact, near;
+
+    /**
+     * Keeps the first example of each group of duplicates, preferring examples with objects and then by annotation file
+     * name, so that the same examples are kept on every build
+     *
+     * @param nearDuplicates whether to look for near duplicates, which needs the perceptual hash of every entry
+     */
+    public Deduplicator(Collection<RecordManifest.Entry> entries, boolean nearDuplicates) {
+        List<RecordManifest.Entry> sorted = new ArrayList<>(entries);
+        sorted.removeIf(entry -> entry.imageSha256 == null);
+        sorted.sort(Comparator.comparing((RecordManifest.Entry entry) -> entry.labels.isEmpty())
+                .thenComparing(entry -> entry.annotation));
+
+        Set<String> hashes = new HashSet<>();
+        Map<Long, List<Long>> bands = new HashMap<>();
+        for (RecordManifest.Entry entry : sorted) {
+            if (!hashes.add(entry.imageSha256)) {
+                duplicates.add(entry.annotation);
+                exact++;
+                continue;
+            }
+            Long hash = entry.perceptualHash;
+            if (!nearDuplicates || hash == null) {
+                continue;
+            }
+            if (findNear(bands, hash)) {
+                duplicates.add(entry.annotation);
+                near++;
+                continue;
+            }
+            for (int band = 0; band < BANDS; band++) {
+                bands.computeIfAbsent(getBandKey(hash, band), key -> new ArrayList<>()).add(hash);
+            }
+        }
+    }
+
+    public boolean isDuplicate(String annotation) {
+        return duplicates.contains(annotation);
+    }
+
+    public int getExactCount() {
+        return exact;
+    }
+
+    public int getNearCount() {
+        return near;
+    }
+
+    private static boolean findNear(Map<Long, List<Long>> bands, long hash) {
+        for (int band = 0; band < BANDS; band++) {
+            for (long other : bands.getOrDefault(getBandKey(hash, band), Collections.emptyList())) {
+                if (Long.bitCount(hash ^ other) <= MAX_DISTANCE) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static long getBandKey(long hash, int band) {
+        long bits = (hash >>> (band * BAND_BITS)) & ((1L << BAND_BITS) - 1);
+        return (bits << 3) | band;
+    }
+
+    /**
+     * @return the 64-bit difference hash of an image: whether each pixel of a 9x8 grayscale thumbnail is brighter than
+     * its right neighbor
+     */
+    public static long perceptualHash(File imageFile) throws IOException {
+        BufferedImage image = null;
+        try (ImageInputStream iis = ImageIO.createImageInputStream(imageFile)) {
+            Iterator<ImageReader> readers = iis == null ? Collections.emptyIterator() : ImageIO.getImageReaders(iis);
+            if (readers.hasNext()) {
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(iis, true, true);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    int subsampling = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / DECODE_SIDE);
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                    image = reader.read(0, param);
+                }
+                finally {
+                    reader.dispose();
+                }
+            }
+        }
+        if (image == null) {
+            throw new IOException("Unable to decode " + imageFile);
+        }
+        BufferedImage thumbnail = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = thumbnail.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, 9, 8, null);
+        }
+        finally {
+            g.dispose();
+        }
+        byte[] pixels = new byte[9 * 8];
+        thumbnail.getRaster().getDataElements(0, 0, 9, 8, pixels);
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                if ((pixels[y * 9 + x] & 0xff) > (pixels[y * 9 + x + 1] & 0xff)) {
+                    hash |= 1L << (y * 8 + x);
+                }
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.easymobo.openlabeler.tensorflow;
+
+import com.easymobo.openlabeler.model.HintModel;
+import com.easymobo.openlabeler.util.AppUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persists detected hints beside the annotation directory, so that reopening a dataset does not need to run
+ * inference again. Hints are stored as <code>.hints/&lt;model fingerprint&gt;/&lt;image SHA-256&gt;.json</code>, so
+ * they survive renaming images and are ignored once a different saved model is loaded. Hints of other models are
+ * removed the first time hints of the current model are stored in a directory.
+ * <p>
+ * Hints are stored down to a score lower than the hint threshold, before any per-label limit, so that changing the
+ * hint settings only filters the stored hints again.
+ * </p>
+ */
+public class DetectionStore
+{
+    private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getCanonicalName());
+    private static final String HINTS_DIR = ".hints";
+
+    private final ObjectMapper mapper = AppUtils.createJSONMapper();
+
+    /**
+     * @return the stored hints of <code>imageFile</code> in descending score order, including hints scoring below
+     * <code>minScore</code>, or null if it has not been detected with the model down to <code>minScore</code>
+     */
+    public List<HintModel> load(File imageFile, String modelFingerprint, float minScore) {
+        try {
+            File file = getHintsFile(imageFile, modelFingerprint);
+            if (file == null || !file.exists()) {
+                return null;
+            }
+            JsonNode root = mapper.readTree(file);
+            if (!root.has("minScore") || root.get("minScore").asDouble() > minScore) {
+                return null;
+            }
+            List<HintModel> hints = new ArrayList<>();
+            for (JsonNode node : root.get("hints")) {
+                HintModel hint = new HintModel(node.get("name").asText(),
+                      node.get("xmin").asDouble(), node.get("ymin").asDouble(),
+                      node.get("xmax").asDouble(), node.get("ymax").asDouble());
+                hint.setScore((float)node.get("score").asDouble());
+                hints.add(hint);
+            }
+            return hints;
+        }
+        catch (Exception ex) {
+            LOG.log(Level.WARNING, "Unable to load stored hints of " + imageFile, ex);
+        }
+        return null;
+    }
+
+    /**
+     * @param minScore lowest score the hints were detected with
+     */
+    public void save(File imageFile, String modelFingerprint, float minScore, List<HintModel> hints) {
+        try {
+            File file = getHintsFile(imageFile, modelFingerprint);
+            if (file == null) {
+                return;
+            }
+            // Only the detection creating the directory removes the hints of other models, never those of its own
+            File modelDir = file.getParentFile();
+            if (modelDir.mkdirs()) {
+                removeStaleHints(modelDir);
+            }
+            ObjectNode root = mapper.createObjectNode();
+            root.put("minScore", minScore);
+            ArrayNode array = root.putArray("hints");
+            for (HintModel hint : hints) {
+                ObjectNode node = array.addObject();
+                node.put("name", hint.getName());
+                node.put("score", hint.getScore());
+                node.put("xmin", hint.getBoundBox().getXMin());
+                node.put("ymin", hint.getBoundBox().getYMin());
+                node.put("xmax", hint.getBoundBox().getXMax());
+                node.put("ymax", hint.getBoundBox().getYMax());
+            }
+            // Write to a temporary file first, so that a concurrent load never sees a partial file
+            Path temp = Files.createTempFile(modelDir.toPath(), file.getName(), ".tmp");
+            mapper.writeValue(temp.toFile(), root);
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (Exception ex) {
+            LOG.log(Level.WARNING, "Unable to store hints of " + imageFile, ex);
+        }
+    }
+
+    private static File getHintsFile(File imageFile, String modelFingerprint) throws IOException {
+        File annotationDir = AppUtils.getAnnotationFile(imageFile).getParentFile();
+        if (annotationDir == null || modelFingerprint == null || !imageFile.exists()) {
+            return null;
+        }
+        String imageHash;
+        try (InputStream is = new FileInputStream(imageFile)) {
+            imageHash = DigestUtils.sha256Hex(is);
+        }
+        return annotationDir.toPath().resolve(HINTS_DIR).resolve(modelFingerprint).resolve(imageHash + ".json").toFile();
+    }
+
+    private static void removeStaleHints(File modelDir) {
+        File[] stale = modelDir.getParentFile().listFiles(dir -> dir.isDirectory() && !dir.getName().equals(modelDir.getName()));
+        if (stale == null) {
+            return;
+        }
+        for (File dir : stale) {
+            LOG.info("Removing stored hints of previous model " + dir);
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+}
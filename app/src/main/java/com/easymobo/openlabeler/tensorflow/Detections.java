@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.easymobo.openlabeler.tensorflow;
+
+import com.easymobo.openlabeler.model.HintModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The boxes detected in an image, in image coordinates. Boxes are collected in primitive arrays, possibly from several
+ * tiles run concurrently, and are only turned into {@link HintModel}s once they have been filtered.
+ */
+public class Detections
+{
+    private float[] boxes = new float[16 * 4];
+    private float[] scores = new float[16];
+    private int[] classes = new int[16];
+    private int count;
+
+    public synchronized void add(float xmin, float ymin, float xmax, float ymax, float score, int id) {
+        if (count == scores.length) {
+            boxes = Arrays.copyOf(boxes, count * 2 * 4);
+            scores = Arrays.copyOf(scores, count * 2);
+            classes = Arrays.copyOf(classes, count * 2);
+        }
+        boxes[count * 4] = xmin;
+        boxes[count * 4 + 1] = ymin;
+        boxes[count * 4 + 2] = xmax;
+        boxes[count * 4 + 3] = ymax;
+        scores[count] = score;
+        classes[count] = id;
+        count++;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Drops boxes overlapping a higher scored box of the same class by more than <code>iouThreshold</code>, and keeps
+     * at most <code>maxPerClass</code> boxes of each class if it is positive
+     */
+    public synchronized void suppress(float iouThreshold, int maxPerClass) {
+        retain(NonMaxSuppression.apply(boxes, scores, classes, count, iouThreshold, maxPerClass));
+    }
+
+    /**
+     * Fuses overlapping boxes of the same class predicted by <code>numModels</code> models into single boxes
+     */
+    public synchronized void fuse(int numModels, float iouThreshold) {
+        count = WeightedBoxFusion.fuse(boxes, scores, classes, count, numModels, iouThreshold);
+    }
+
+    /**
+     * @return hints for the boxes whose class id has a label, in descending score order
+     */
+    public synchronized List<HintModel> toHints(String[] labels) {
+        List<HintModel> hints = new ArrayList<>(count);
+        for (int i : NonMaxSuppression.sortByScore(scores, count)) {
+            int id = classes[i];
+            if (id >= 0 && id < labels.length && labels[id] != null) {
+                HintModel hint = new HintModel(labels[id], boxes[i * 4], boxes[i * 4 + 1], boxes[i * 4 + 2], boxes[i * 4 + 3]);
+                hint.setScore(scores[i]);
+                hints.add(hint);
+            }
+        }
+        return hints;
+    }
+
+    private void retain(int[] indices) {
+        float[] keptBoxes = new float[Math.max(indices.length, 1) * 4];
+        float[] keptScores = new float[Math.max(indices.length, 1)];
+        int[] keptClasses = new int[Math.max(indices.length, 1)];
+        for (int k = 0; k < indices.length; k++) {
+            int i = indices[k];
+            System.arraycopy(boxes, i * 4, keptBoxes, k * 4, 4);
+            keptScores[k] = scores[i];
+            keptClasses[k] = classes[i];
+        }
+        boxes = keptBoxes;
+        scores = keptScores;
+        classes = keptClasses;
+        count = indices.length;
+    }
+}
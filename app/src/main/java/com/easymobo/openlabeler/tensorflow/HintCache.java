@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.easymobo.openlabeler.tensorflow;
+
+import com.easymobo.openlabeler.model.HintModel;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Bounded, least recently used cache of detected hints, keyed by image path plus last modified time.
+ * Hints are copied in and out of the cache, so callers are free to modify the returned models.
+ */
+public class HintCache
+{
+    private final Map<String, List<HintModel>> cache;
+
+    public HintCache(int maxEntries) {
+        cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<HintModel>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return a copy of the cached hints, or null if <code>imageFile</code> has not been detected since it was last
+     * modified
+     */
+    public synchronized List<HintModel> get(File imageFile) {
+        List<HintModel> hints = cache.get(getKey(imageFile));
+        return hints == null ? null : copy(hints);
+    }
+
+    public synchronized boolean contains(File imageFile) {
+        return cache.containsKey(getKey(imageFile));
+    }
+
+    public synchronized void put(File imageFile, List<HintModel> hints) {
+        cache.put(getKey(imageFile), copy(hints));
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    private static String getKey(File imageFile) {
+        return imageFile.getAbsolutePath() + "@" + imageFile.lastModified();
+    }
+
+    private static List<HintModel> copy(List<HintModel> hints) {
+        return hints.stream().map(hint -> (HintModel)hint.clone()).collect(Collectors.toList());
+    }
+}
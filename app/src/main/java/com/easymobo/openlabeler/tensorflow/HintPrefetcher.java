@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.easymobo.openlabeler.tensorflow;
+
+import java.io.File;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Detects objects in the media files the user is likely to open next, so that their hints are already in the
+ * detector's hint cache when they are opened. Files are detected one at a time, so that each one's hints are cached
+ * as soon as they are ready rather than after the whole look-ahead.
+ */
+public class HintPrefetcher implements AutoCloseable
+{
+    private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getCanonicalName());
+
+    private final Supplier<ObjectDetector> objectDetector;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Hint Prefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Completed when each queued or running file has been detected, or cancelled if it is dropped before it starts
+    private final Map<File, CompletableFuture<Void>> inflight = new ConcurrentHashMap<>();
+    // Files not yet started, guarded by this
+    private final Deque<File> queue = new ArrayDeque<>();
+
+    /**
+     * @param objectDetector supplies the detector, called on the prefetch thread so that a lazily created detector
+     *                       is initialized off the caller's thread
+     */
+    public HintPrefetcher(Supplier<ObjectDetector> objectDetector) {
+        this.objectDetector = objectDetector;
+    }
+
+    /**
+     * Schedules detection of <code>files</code> in the background. Files from a previous call that have not started
+     * yet and are not in <code>files</code> are dropped, as the user has moved on, while a file being detected is
+     * always left to finish.
+     */
+    public synchronized void prefetch(List<File> files) {
+        List<File> waiting = new ArrayList<>(queue);
+        queue.clear();
+        for (File file : waiting) {
+            if (!files.contains(file)) {
+                inflight.remove(file).cancel(false);
+            }
+        }
+        for (File file : files) {
+            if (queue.contains(file)) {
+                continue;
+            }
+            if (waiting.contains(file)) {
+                // Still queued from the previous call, kept in the new order
+                queue.add(file);
+            }
+            else if (inflight.putIfAbsent(file, new CompletableFuture<>()) == null) {
+                queue.add(file);
+                executor.execute(this::detectNext);
+            }
+        }
+    }
+
+    /**
+     * Waits for the prefetch of <code>file</code>, if it is queued or running, so that its hints can be taken from the
+     * detector's cache instead of being detected again.
+     *
+     * @return true if the file has been prefetched, false if it was not being prefetched or was dropped
+     */
+    public boolean await(File file) throws InterruptedException {
+        CompletableFuture<Void> future = inflight.get(file);
+        if (future == null) {
+            return false;
+        }
+        try {
+            future.get();
+            return true;
+        }
+        catch (CancellationException | ExecutionException ex) {
+            return false;
+        }
+    }
+
+    private void detectNext() {
+        File file;
+        CompletableFuture<Void> future;
+        synchronized (this) {
+            file = queue.poll();
+            if (file == null) {
+                return;
+            }
+            future = inflight.get(file);
+        }
+        try {
+            ObjectDetector detector = objectDetector.get();
+            if (!detector.hasCachedHints(file)) {
+                detector.detect(Collections.singletonList(file));
+            }
+        }
+        catch (Exception ex) {
+            LOG.log(Level.FINE, "Unable to prefetch hints", ex);
+        }
+        finally {
+            inflight.remove(file, future);
+            future.complete(null);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        queue.forEach(file -> inflight.remove(file).cancel(false));
+        queue.clear();
+        executor.shutdown();
+    }
+}
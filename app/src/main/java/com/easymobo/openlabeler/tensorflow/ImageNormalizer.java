@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.easymobo.openlabeler.tensorflow;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Prepares images for TFRecords. With a positive maximum side, images larger than it are downsized and images that are
+ * not JPEG are re-encoded as JPEG, so that records stay small; other images are embedded as they are.
+ */
+public class ImageNormalizer
+{
+    private final int maxSide;
+    private final int quality;
+
+    /**
+     * @param maxSide maximum width and height of images, 0 to embed images as they are
+     * @param quality JPEG quality of re-encoded images, between 1 and 100
+     */
+    public ImageNormalizer(int maxSide, int quality) {
+        this.maxSide = Math.max(0, maxSide);
+        this.quality = Math.max(1, Math.min(100, quality));
+    }
+
+    /**
+     * @return a description of the settings, which changes whenever images would be normalized differently
+     */
+    public String getOptions() {
+        return maxSide > 0 ? "maxSide=" + maxSide + ";quality=" + quality : "original";
+    }
+
+    /**
+     * @param bytes  encoded image
+     * @param width  width of the image in its annotation
+     * @param height height of the image in its annotation
+     */
+    public EncodedImage normalize(byte[] bytes, int width, int height) throws IOException {
+        String format = getFormat(bytes);
+        if (maxSide <= 0 || ("jpeg".equals(format) && Math.max(width, height) <= maxSide)) {
+            return new EncodedImage(bytes, format != null ? format : "jpeg", width, height);
+        }
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+        if (image == null) {
+            throw new IOException("Unable to decode image");
+        }
+        double scale = Math.min(1, (double)maxSide / Math.max(image.getWidth(), image.getHeight()));
+        int targetWidth = Math.max(1, (int)Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int)Math.round(image.getHeight() * scale));
+
+        // Normalized box coordinates are relative to the image size, so they hold for the resized image as they are
+        BufferedImage target = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, targetWidth, targetHeight, Color.WHITE, null);
+        }
+        finally {
+            g.dispose();
+        }
+        return new EncodedImage(encodeJpeg(target), "jpeg", targetWidth, targetHeight);
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 4);
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(bos)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality / 100f);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+        finally {
+            writer.dispose();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * @return the <code>image/format</code> of an encoded image from its signature, or null if unknown
+     */
+    public static String getFormat(byte[] bytes) {
+        if (bytes.length >= 3 && (bytes[0] & 0xff) == 0xff && (bytes[1] & 0xff) == 0xd8 && (bytes[2] & 0xff) == 0xff) {
+            return "jpeg";
+        }
+        if (bytes.length >= 8 && (bytes[0] & 0xff) == 0x89 && bytes[1] == 'P' && bytes[2] == 'N' && bytes[3] == 'G') {
+            return "png";
+        }
+        if (bytes.length >= 6 && bytes[0] == 'G' && bytes[1] == 'I' && bytes[2] == 'F' && bytes[3] == '8') {
+            return "gif";
+        }
+        if (bytes.length >= 2 && bytes[0] == 'B' && bytes[1] == 'M') {
+            return "bmp";
+        }
+        return null;
+    }
+
+    public static class EncodedImage
+    {
+        private final byte[] bytes;
+        private final String format;
+        private final int width, height;
+
+        private EncodedImage(byte[] bytes, String format, int width, int height) {
+            this.bytes = bytes;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+}
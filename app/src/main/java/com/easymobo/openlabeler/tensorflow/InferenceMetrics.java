@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.easymobo.openlabeler.tensorflow;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Per-stage latencies of object detection, recorded in {@link LatencyHistogram}s and emitted as
+ * <code>com.easymobo.openlabeler.InferenceStage</code> JFR events, so that slow hints can be traced to a stage.
+ * <pre>
+ *     try (InferenceMetrics.Timer timer = InferenceMetrics.start(Stage.DECODE)) {
+ *         ...
+ *     }
+ * </pre>
+ */
+public class InferenceMetrics
+{
+    public enum Stage
+    {
+        DECODE("Image decode and resize"),
+        TENSOR("Tensor creation"),
+        SESSION_RUN("Session run"),
+        POST_PROCESS("Post-processing and label lookup"),
+        DETECT("Detect"),
+        FIND_HINTS("Find hints");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    static {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    private InferenceMetrics() {}
+
+    public static Timer start(Stage stage) {
+        return new Timer(stage);
+    }
+
+    public static LatencyHistogram getHistogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * @return one line per stage with its count and latency percentiles in milliseconds
+     */
+    public static String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram h = histograms.get(stage);
+            sb.append(String.format("%-34s count=%d  mean=%.1f  p50=%.1f  p95=%.1f  p99=%.1f  max=%.1f ms",
+                  stage.getLabel() + ":", h.getCount(), h.getMean() / 1000.0, h.getPercentile(50) / 1000.0,
+                  h.getPercentile(95) / 1000.0, h.getPercentile(99) / 1000.0, h.getMax() / 1000.0));
+            sb.append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    public static class Timer implements AutoCloseable
+    {
+        private final Stage stage;
+        private final long start = System.nanoTime();
+        private final InferenceStageEvent event = new InferenceStageEvent();
+
+        private Timer(Stage stage) {
+            this.stage = stage;
+            event.begin();
+        }
+
+        /**
+         * Records the time since the timer was started
+         */
+        @Override
+        public void close() {
+            histograms.get(stage).record((System.nanoTime() - start) / 1000);
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage.getLabel();
+                event.commit();
+            }
+        }
+    }
+
+    @Name("com.easymobo.openlabeler.InferenceStage")
+    @Label("Inference Stage")
+    @Category({"OpenLabeler", "Inference"})
+    @Description("Duration of a stage of object detection")
+    static class InferenceStageEvent extends Event
+    {
+        @Label("Stage")
+        String stage;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.easymobo.openlabeler.tensorflow;
+
+import com.easymobo.openlabeler.preference.LabelMapItem;
+
+import java.io.File;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Caches the labels parsed from a label map file, indexed by label id. The cached labels are keyed on the file path
+ * plus its last modified time and size, and are only re-parsed when {@link #refresh()} finds that the file changed.
+ */
+public class LabelMapCache
+{
+    private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getCanonicalName());
+
+    private final AtomicReference<Entry> entry = new AtomicReference<>();
+
+    /**
+     * Returns the labels of the label map at <code>path</code>. The file system is only accessed when the cache holds
+     * no labels for <code>path</code>.
+     */
+    public String[] get(Path path) {
+        Entry current = entry.get();
+        if (current != null && current.path.equals(path)) {
+            return current.labels;
+        }
+        Entry loaded = load(path);
+        entry.set(loaded);
+        return loaded.labels;
+    }
+
+    /**
+     * Re-parses the cached label map if its last modified time or size changed
+     */
+    public void refresh() {
+        Entry current = entry.get();
+        if (current == null) {
+            return;
+        }
+        File file = current.path.toFile();
+        if (file.lastModified() != current.modified || file.length() != current.size) {
+            LOG.info("Label map " + current.path + " changed, reloading");
+            entry.compareAndSet(current, load(current.path));
+        }
+    }
+
+    public void invalidate() {
+        entry.set(null);
+    }
+
+    public boolean isLabelMap(Path path) {
+        Entry current = entry.get();
+        return current != null && path != null && current.path.getFileName().equals(path.getFileName());
+    }
+
+    private static Entry load(Path path) {
+        File file = path.toFile();
+        // Read the stats before parsing, so that a concurrent change is picked up by the next refresh
+        long modified = file.lastModified();
+        long size = file.length();
+        return new Entry(path, modified, size, parse(path));
+    }
+
+    /**
+     * @return the labels of the label map at <code>path</code>, indexed by label id
+     */
+    public static String[] parse(Path path) {
+        List<LabelMapItem> items = TFTrainer.getLabelMapItems(path);
+        int maxId = items.stream().mapToInt(item -> item.getId()).max().orElse(0);
+        String[] labels = new String[maxId + 1];
+        for (LabelMapItem item : items) {
+            labels[item.getId()] = item.getName();
+        }
+        return labels;
+    }
+
+    private static class Entry
+    {
+        private final Path path;
+        private final long modified, size;
+        private final String[] labels;
+
+        private Entry(Path path, long modified, long size, String[] labels) {
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+            this.labels = labels;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.easymobo.openlabeler.tensorflow;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.tensorflow.Result;
+import org.tensorflow.SavedModelBundle;
+import org.tensorflow.Tensor;
+import org.tensorflow.ndarray.Shape;
+import org.tensorflow.ndarray.buffer.DataBuffers;
+import org.tensorflow.proto.framework.DataType;
+import org.tensorflow.proto.framework.MetaGraphDef;
+import org.tensorflow.proto.framework.SignatureDef;
+import org.tensorflow.proto.framework.TensorInfo;
+import org.tensorflow.types.TString;
+import org.tensorflow.types.TUint8;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The serving signature of a loaded saved model, resolved once when the model is loaded so that inference only needs
+ * to feed and fetch tensors by name.
+ * <p>
+ * A binding is reference counted so that it can be swapped out while detections are still running on it: inference
+ * calls {@link #acquire()} and {@link #release()} around each session run, and the saved model is only closed once
+ * the binding has been {@link #close() closed} by its owner and the last in-flight run has released it.
+ * </p>
+ */
+public class ModelBinding implements AutoCloseable
+{
+    // Size of the synthetic image used to warm up models taking images of any size
+    private static final int WARM_UP_SIZE = 320;
+
+    private final SavedModelBundle model;
+    private final SignatureDef signature;
+    private final String inputOp;
+    private final DataType inputType;
+    private final String scoresOp, classesOp, boxesOp;
+    private final int batchSize;
+    private final int inputWidth, inputHeight;
+    private final String fingerprint;
+
+    // One reference is held by the owner until close() is called
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    public ModelBinding(File savedModelDir, SavedModelBundle model, int maxBatchSize) throws IOException {
+        this.model = model;
+        this.fingerprint = fingerprint(savedModelDir);
+
+        MetaGraphDef m = model.metaGraphDef();
+        signature = m.getSignatureDefOrThrow("serving_default");
+
+        TensorInfo inputInfo = signature.containsInputs("input_tensor") ? signature.getInputsOrThrow("input_tensor") : null;
+        if (model.graph().operation("image_tensor") != null) {
+            inputOp = "image_tensor";
+            inputType = DataType.DT_UINT8;
+        }
+        else if (model.graph().operation("encoded_image_string_tensor") != null) {
+            inputOp = "encoded_image_string_tensor";
+            inputType = DataType.DT_STRING;
+        }
+        else if (inputInfo != null) {
+            inputOp = inputInfo.getName();
+            inputType = inputInfo.getDtype() == DataType.DT_STRING ? DataType.DT_STRING : DataType.DT_UINT8;
+        }
+        else {
+            throw new IOException("Unable to find input tensor in saved model");
+        }
+
+        // Exported models may have the batch dimension fixed to 1
+        int size = maxBatchSize;
+        if (inputInfo != null && inputInfo.getTensorShape().getDimCount() > 0) {
+            long dim = inputInfo.getTensorShape().getDim(0).getSize();
+            if (dim > 0) {
+                size = (int)Math.min(dim, maxBatchSize);
+            }
+        }
+        batchSize = size;
+
+        // Some exports take images of a fixed size only, as [N, height, width, 3]
+        if (inputInfo != null && inputInfo.getTensorShape().getDimCount() == 4
+              && inputInfo.getTensorShape().getDim(1).getSize() > 0 && inputInfo.getTensorShape().getDim(2).getSize() > 0) {
+            inputHeight = (int)inputInfo.getTensorShape().getDim(1).getSize();
+            inputWidth = (int)inputInfo.getTensorShape().getDim(2).getSize();
+        }
+        else {
+            inputHeight = inputWidth = 0;
+        }
+
+        try {
+            scoresOp = signature.getOutputsOrThrow("detection_scores").getName();
+            classesOp = signature.getOutputsOrThrow("detection_classes").getName();
+            boxesOp = signature.getOutputsOrThrow("detection_boxes").getName();
+        }
+        catch (IllegalArgumentException ex) {
+            throw new IOException("Saved model does not have detection outputs", ex);
+        }
+    }
+
+    public SavedModelBundle getModel() {
+        return model;
+    }
+
+    public SignatureDef getSignature() {
+        return signature;
+    }
+
+    public String getInputOp() {
+        return inputOp;
+    }
+
+    public boolean isEncodedInput() {
+        return inputType == DataType.DT_STRING;
+    }
+
+    public String getScoresOp() {
+        return scoresOp;
+    }
+
+    public String getClassesOp() {
+        return classesOp;
+    }
+
+    public String getBoxesOp() {
+        return boxesOp;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the image width the model expects, or 0 if the model takes images of any size
+     */
+    public int getInputWidth() {
+        return inputWidth;
+    }
+
+    /**
+     * @return the image height the model expects, or 0 if the model takes images of any size
+     */
+    public int getInputHeight() {
+        return inputHeight;
+    }
+
+    /**
+     * @return a digest of the saved model graph and variables index, which changes whenever the model is re-exported
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return a digest of the saved model graph and variables index in <code>savedModelDir</code>
+     */
+    public static String fingerprint(File savedModelDir) throws IOException {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        for (File file : new File[] {
+              new File(savedModelDir, "saved_model.pb"),
+              new File(savedModelDir, "variables" + File.separator + "variables.index") }) {
+            if (file.exists()) {
+                try (InputStream is = new FileInputStream(file)) {
+                    DigestUtils.updateDigest(digest, is);
+                }
+            }
+        }
+        return Hex.encodeHexString(digest.digest()).substring(0, 16);
+    }
+
+    /**
+     * Runs a synthetic inference on a blank image, so that graph initialization is paid before the model is used
+     * rather than by the first detection
+     */
+    public void warmUp() throws IOException {
+        int width = inputWidth > 0 ? inputWidth : WARM_UP_SIZE;
+        int height = inputHeight > 0 ? inputHeight : WARM_UP_SIZE;
+        Tensor input;
+        if (isEncodedInput()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR), "jpg", out);
+            input = TString.tensorOfBytes(Shape.of(1), DataBuffers.ofObjects(new byte[][] { out.toByteArray() }));
+        }
+        else {
+            input = TUint8.tensorOf(Shape.of(1, height, width, 3));
+        }
+        try (input; Result result = model.session().runner()
+              .feed(inputOp, input)
+              .fetch(scoresOp)
+              .fetch(classesOp)
+              .fetch(boxesOp)
+              .run()) {
+        }
+        catch (RuntimeException ex) {
+            throw new IOException("Unable to warm up saved model", ex);
+        }
+    }
+
+    /**
+     * @return false if the binding has already been closed and must not be used
+     */
+    public boolean acquire() {
+        while (true) {
+            int count = references.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            model.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            release();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.easymobo.openlabeler.tensorflow;
+
+import java.util.Arrays;
+
+/**
+ * Class-aware greedy non-maximum suppression over boxes held in primitive arrays, so that overlapping detections
+ * can be dropped before any objects are allocated for them.
+ */
+public final class NonMaxSuppression
+{
+    private NonMaxSuppression() {}
+
+    /**
+     * @param boxes        <code>xmin, ymin, xmax, ymax</code> of each box
+     * @param scores       score of each box, between 0 and 1
+     * @param classes      class id of each box
+     * @param count        number of boxes in the arrays
+     * @param iouThreshold a box is suppressed when it overlaps a higher scored box of the same class by more than this
+     * @param maxPerClass  maximum number of boxes kept for each class, 0 for no limit
+     * @return the indices of the boxes that are kept, in descending score order
+     */
+    public static int[] apply(float[] boxes, float[] scores, int[] classes, int count, float iouThreshold,
+                              int maxPerClass) {
+        int[] order = sortByScore(scores, count);
+        boolean[] suppressed = new boolean[count];
+        int[] kept = new int[count];
+        int numKept = 0;
+        int maxClass = 0;
+        for (int i = 0; i < count; i++) {
+            maxClass = Math.max(maxClass, classes[i]);
+        }
+        int[] keptPerClass = new int[maxClass + 1];
+        for (int a = 0; a < count; a++) {
+            int i = order[a];
+            if (suppressed[i]) {
+                continue;
+            }
+            if (maxPerClass > 0 && classes[i] >= 0 && keptPerClass[classes[i]]++ >= maxPerClass) {
+                continue;
+            }
+            kept[numKept++] = i;
+            for (int b = a + 1; b < count; b++) {
+                int j = order[b];
+                if (!suppressed[j] && classes[j] == classes[i] && iou(boxes, i, boxes, j) > iouThreshold) {
+                    suppressed[j] = true;
+                }
+            }
+        }
+        return Arrays.copyOf(kept, numKept);
+    }
+
+    /**
+     * @return the indices of the first <code>count</code> scores, in descending score order
+     */
+    public static int[] sortByScore(float[] scores, int count) {
+        // Non-negative floats order the same as their bit patterns, so score and index are packed into one long
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long)Float.floatToIntBits(Math.max(scores[i], 0f)) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (int)keys[count - 1 - i];
+        }
+        return order;
+    }
+
+    /**
+     * @return the intersection over union of box <code>i</code> in <code>a</code> and box <code>j</code> in <code>b</code>
+     */
+    static float iou(float[] a, int i, float[] b, int j) {
+        int p = i * 4, q = j * 4;
+        float width = Math.min(a[p + 2], b[q + 2]) - Math.max(a[p], b[q]);
+        float height = Math.min(a[p + 3], b[q + 3]) - Math.max(a[p + 1], b[q + 1]);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        float intersection = width * height;
+        float areaA = (a[p + 2] - a[p]) * (a[p + 3] - a[p + 1]);
+        float areaB = (b[q + 2] - b[q]) * (b[q + 3] - b[q + 1]);
+        return intersection / (areaA + areaB - intersection);
+    }
+}
@@ -17,12 +17,13 @@
 package com.easymobo.openlabeler.tensorflow;
 
 import com.easymobo.openlabeler.model.HintModel;
-import com.easymobo.openlabeler.preference.LabelMapItem;
 import com.easymobo.openlabeler.preference.Settings;
+import com.easymobo.openlabeler.tensorflow.InferenceMetrics.Stage;
 import com.easymobo.openlabeler.util.AppUtils;
 import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
@@ -31,9 +32,8 @@ import org.tensorflow.SavedModelBundle;
 import org.tensorflow.Tensor;
 import org.tensorflow.TensorFlow;
 import org.tensorflow.ndarray.Shape;
+import org.tensorflow.ndarray.buffer.ByteDataBuffer;
 import org.tensorflow.ndarray.buffer.DataBuffers;
-import org.tensorflow.proto.framework.DataType;
-import org.tensorflow.proto.framework.MetaGraphDef;
 import org.tensorflow.proto.framework.SignatureDef;
 import org.tensorflow.proto.framework.TensorInfo;
 import org.tensorflow.types.TFloat32;
@@ -41,6 +41,13 @@ import org.tensorflow.types.TString;
 import org.tensorflow.types.TUint8;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.io.File;
@@ -51,8 +58,18 @@ import java.nio.ByteOrder;
 import java.nio.file.*;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
@@ -61,12 +78,63 @@ public class ObjectDetector implements AutoCloseable
 {
     private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getCanonicalName());
 
-    private SavedModelBundle model;
+    // Maximum number of images inferred in a single session run
+    public static final int MAX_BATCH_SIZE = 8;
+    // Maximum number of decoded images waiting for their size group to fill, before partial groups are submitted
+    private static final int MAX_PENDING_IMAGES = MAX_BATCH_SIZE * 4;
+    // Maximum number of batches queued per inference thread, before decoding waits for inference to catch up
+    private static final int MAX_QUEUED_BATCHES = 2;
+    // Lowest score of the detections kept in the detection store, whatever the hint threshold
+    private static final float STORED_MIN_SCORE = 0.05f;
+    // Maximum number of images with hints kept in memory
+    private static final int HINT_CACHE_SIZE = 256;
+    // Fraction of a tile shared with its neighbours in sliced inference
+    private static final float TILE_OVERLAP = 0.2f;
+    // Boxes of the same class overlapping more than this, including across tile seams, are merged
+    private static final float NMS_IOU_THRESHOLD = 0.5f;
+    // Boxes of the same class predicted by ensemble models overlapping more than this are fused
+    private static final float WBF_IOU_THRESHOLD = 0.55f;
+    // Interval and timeout of polling an exported saved model until it stops changing
+    private static final long EXPORT_POLL_MILLIS = 1000;
+    private static final long EXPORT_TIMEOUT_MILLIS = 120000;
+
+    // Swapped atomically when a new saved model is loaded
+    private final AtomicReference<ModelBinding> binding = new AtomicReference<>();
     private ResourceBundle bundle = ResourceBundle.getBundle("bundle");
 
-    // Monitors TF saved model directory status
+    // Monitors TF saved model directory and label map file status
     private WatchService watcher;
-    private WatchKey tfSavedModelWatchKey;
+    private WatchKey tfSavedModelWatchKey, tfLabelMapWatchKey;
+
+    // Labels parsed from the label map file
+    private final LabelMapCache labelMapCache = new LabelMapCache();
+
+    // Loads saved models one at a time, off the watcher and JavaFX threads
+    private final ExecutorService modelLoader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Model Loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean reloadPending = new AtomicBoolean(false);
+    private volatile Future<?> pendingLoad;
+
+    // Runs session inferences concurrently on the shared session, replaced when the number of threads changes
+    private volatile InferencePool inferencePool;
+
+    // Additional saved models, each with its own labels, run on the same input as the saved model
+    private final AtomicReference<List<EnsembleMember>> ensembleMembers = new AtomicReference<>(Collections.emptyList());
+    private final ExecutorService ensembleExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Ensemble Model");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Hints detected with the current model and labels
+    private final HintCache hintCache = new HintCache(HINT_CACHE_SIZE);
+
+    // Hints persisted beside the annotations, which survive restarts
+    private final DetectionStore detectionStore = new DetectionStore();
+    private volatile boolean useDetectionStore = true;
 
     public void init() {
         synchronized (this) {
@@ -82,16 +150,53 @@ public class ObjectDetector implements AutoCloseable
                 watch(Paths.get(newValue));
             });
 
+            watchLabelMap(Paths.get(Settings.getTFLabelMapFile()));
+            Settings.tfLabelMapFileProperty.addListener((observable, oldValue, newValue) -> {
+                labelMapCache.invalidate();
+                hintCache.clear();
+                watchLabelMap(Paths.get(newValue));
+            });
+            Settings.inferenceMaxSideProperty.addListener((observable, oldValue, newValue) -> hintCache.clear());
+            Settings.inferenceTileSizeProperty.addListener((observable, oldValue, newValue) -> hintCache.clear());
+            Settings.hintMinScoreProperty.addListener((observable, oldValue, newValue) -> hintCache.clear());
+            Settings.hintMaxPerClassProperty.addListener((observable, oldValue, newValue) -> hintCache.clear());
+
+            // Queued after the saved model, so that waiting for it waits for both
+            pendingLoad = modelLoader.submit(this::reloadEnsemble);
+            Settings.tfEnsembleModelsProperty.addListener((observable, oldValue, newValue) -> {
+                pendingLoad = modelLoader.submit(this::reloadEnsemble);
+            });
+
+            inferencePool = new InferencePool(createInferenceExecutor(Settings.getInferenceThreads()));
+            Settings.inferenceThreadsProperty.addListener((observable, oldValue, newValue) -> {
+                InferencePool previous = inferencePool;
+                inferencePool = new InferencePool(createInferenceExecutor(newValue.intValue()));
+                // Detections still submitting to the previous executor keep it until they are done
+                previous.retire();
+            });
+
             LOG.log(Level.INFO, "TensorFlow: " + TensorFlow.version());
         }
     }
 
+    /**
+     * Sets whether detections are loaded from and saved to the {@link DetectionStore}. Callers which detect each
+     * image only once, such as batch annotation, can turn it off to avoid hashing every image and writing hint
+     * files that are never read.
+     */
+    public void setUseDetectionStore(boolean useDetectionStore) {
+        this.useDetectionStore = useDetectionStore;
+    }
+
     @Override
     public void close() {
-        if (model != null) {
-            model.close();
-        }
+        modelLoader.shutdownNow();
+        Optional.ofNullable(binding.getAndSet(null)).ifPresent(ModelBinding::close);
+        ensembleMembers.getAndSet(Collections.emptyList()).forEach(member -> member.binding.close());
+        Optional.ofNullable(inferencePool).ifPresent(InferencePool::retire);
+        ensembleExecutor.shutdown();
         Optional.ofNullable(tfSavedModelWatchKey).ifPresent(key -> key.cancel());
+        Optional.ofNullable(tfLabelMapWatchKey).ifPresent(key -> key.cancel());
         IOUtils.closeQuietly(watcher);
     }
 
@@ -100,6 +205,30 @@ public class ObjectDetector implements AutoCloseable
         return statusProperty;
     }
 
+    private void setStatus(String status) {
+        try {
+            Platform.runLater(() -> statusProperty.set(status));
+        }
+        catch (IllegalStateException ex) {
+            // JavaFX is not running when detecting headless
+        }
+    }
+
+    /**
+     * Waits for the saved model being loaded, if any.
+     *
+     * @return true if a saved model and label map are available for detection
+     */
+    public boolean awaitReady() throws InterruptedException {
+        ModelBinding current = acquireBinding();
+        if (current == null) {
+            return false;
+        }
+        current.release();
+        // Label ids start at 1, an unreadable label map only has the placeholder at 0
+        return Arrays.stream(loadLabels()).anyMatch(Objects::nonNull);
+    }
+
     private void watch(Path savedModelPath) {
         try {
             Path savedModelParent = savedModelPath.getParent();
@@ -122,114 +251,655 @@ public class ObjectDetector implements AutoCloseable
         }
     }
 
+    private void watchLabelMap(Path labelMapPath) {
+        try {
+            Path labelMapParent = labelMapPath.toAbsolutePath().getParent();
+            if (labelMapParent == null || !labelMapParent.toFile().exists()) {
+                return;
+            }
+            // The label map may live in the saved model parent directory, which shares the same key
+            if (tfLabelMapWatchKey != null && tfLabelMapWatchKey != tfSavedModelWatchKey
+                  && !tfLabelMapWatchKey.watchable().equals(labelMapParent)) {
+                tfLabelMapWatchKey.cancel();
+            }
+            tfLabelMapWatchKey = labelMapParent.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+            AppUtils.watchAndUpdate(watcher, "TF Label Map Watcher", this::update);
+        }
+        catch (Exception ex) {
+            LOG.log(Level.SEVERE, "Unable to watch", ex);
+        }
+    }
+
     private Void update(Path path) {
+        if (labelMapCache.isLabelMap(path)) {
+            labelMapCache.refresh();
+            hintCache.clear();
+            return null;
+        }
+        if (path == null) {
+            pendingLoad = modelLoader.submit(() -> reload(false));
+        }
+        else if ("saved_model".equals(path.toString()) && reloadPending.compareAndSet(false, true)) {
+            // Coming from watched file, events arriving while the export is in progress share a single reload
+            pendingLoad = modelLoader.submit(() -> {
+                reloadPending.set(false);
+                reload(true);
+            });
+        }
+        return null;
+    }
+
+    /**
+     * Loads the saved model in the background, warms it up with a synthetic inference and only then publishes it, so
+     * that detections keep running on the current model until the new one is ready. The previous model is closed once
+     * its in-flight detections complete.
+     *
+     * @param waitForExport whether to wait for the saved model directory to stop changing before loading it
+     */
+    private void reload(boolean waitForExport) {
+        File savedModelFile = new File(Settings.getTFSavedModelDir());
         try {
-            File savedModelFile = new File(Settings.getTFSavedModelDir());
-            if (savedModelFile.exists() && (path == null || "saved_model".equals(path.toString()))) {
-                if (path != null) { // coming from watched file
-                    Thread.sleep(5000); // Wait a while for model to be exported
-                }
-                synchronized (ObjectDetector.this) {
-                    if (model != null) {
-                        model.close();
-                    }
-                    model = SavedModelBundle.load(savedModelFile.getAbsolutePath(), "serve");
-                    String message = MessageFormat.format(bundle.getString("msg.loadedSavedModel"), savedModelFile);
-                    LOG.info(message);
-                    printSignature(model);
-                    Platform.runLater(() -> statusProperty.set(message));
+            if (!savedModelFile.exists()) {
+                if (!waitForExport) {
+                    LOG.info(savedModelFile.toString() + " does not exist");
                 }
+                return;
             }
-            else if (!savedModelFile.exists() && path == null) {
-                LOG.info(savedModelFile.toString() + " does not exist");
+            if (waitForExport && !waitForStableExport(savedModelFile)) {
+                LOG.warning("Saved model " + savedModelFile + " is still changing, not reloading");
+                return;
+            }
+            ModelBinding current = binding.get();
+            if (current != null && current.getFingerprint().equals(ModelBinding.fingerprint(savedModelFile))) {
+                LOG.info("Saved model " + savedModelFile + " is unchanged");
+                return;
             }
+            ModelBinding loaded = loadModel(savedModelFile);
+            Optional.ofNullable(binding.getAndSet(loaded)).ifPresent(ModelBinding::close);
+            hintCache.clear();
+            String message = MessageFormat.format(bundle.getString("msg.loadedSavedModel"), savedModelFile);
+            LOG.info(message);
+            printSignature(loaded.getSignature());
+            setStatus(message);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
         catch (Throwable ex) {
-            LOG.log(Level.SEVERE, "Unable to update " + path, ex);
+            LOG.log(Level.SEVERE, "Unable to load " + savedModelFile, ex);
         }
-        return null;
+    }
+
+    private static ModelBinding loadModel(File savedModelFile) throws IOException {
+        SavedModelBundle model = SavedModelBundle.load(savedModelFile.getAbsolutePath(), "serve");
+        ModelBinding loaded;
+        try {
+            loaded = new ModelBinding(savedModelFile, model, MAX_BATCH_SIZE);
+        }
+        catch (IOException ex) {
+            model.close();
+            throw ex;
+        }
+        try {
+            loaded.warmUp();
+        }
+        catch (IOException ex) {
+            loaded.close();
+            throw ex;
+        }
+        return loaded;
+    }
+
+    /**
+     * Loads the ensemble models listed in {@link Settings#getTFEnsembleModels()}, each line holding a saved model
+     * directory and its label map file separated by a semicolon, and replaces the current ones.
+     */
+    private void reloadEnsemble() {
+        List<EnsembleMember> loaded = new ArrayList<>();
+        for (String line : Settings.getTFEnsembleModels().split("\\R")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] parts = line.split(";");
+            if (parts.length != 2) {
+                LOG.warning("Expected <saved model dir>;<label map file> for ensemble model: " + line);
+                continue;
+            }
+            File savedModelFile = new File(parts[0].trim());
+            try {
+                String[] labels = LabelMapCache.parse(Paths.get(parts[1].trim()));
+                loaded.add(new EnsembleMember(loadModel(savedModelFile), labels));
+                LOG.info("Loaded ensemble model " + savedModelFile);
+            }
+            catch (Throwable ex) {
+                LOG.log(Level.SEVERE, "Unable to load ensemble model " + savedModelFile, ex);
+            }
+        }
+        ensembleMembers.getAndSet(loaded).forEach(member -> member.binding.close());
+        hintCache.clear();
+    }
+
+    /**
+     * Polls the saved model directory until its file sizes, modification times and graph checksum stay the same
+     * between two polls, which means the export has completed.
+     *
+     * @return false if the directory kept changing until the timeout
+     */
+    private static boolean waitForStableExport(File savedModelDir) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + EXPORT_TIMEOUT_MILLIS;
+        String previous = null;
+        while (System.currentTimeMillis() < deadline) {
+            String snapshot = snapshot(savedModelDir);
+            if (snapshot != null && snapshot.equals(previous)) {
+                return true;
+            }
+            previous = snapshot;
+            Thread.sleep(EXPORT_POLL_MILLIS);
+        }
+        return false;
+    }
+
+    /**
+     * @return the state of all files in the saved model directory, or null if the graph has not been written yet
+     */
+    private static String snapshot(File savedModelDir) throws IOException {
+        if (!new File(savedModelDir, "saved_model.pb").exists()) {
+            return null;
+        }
+        StringBuilder snapshot = new StringBuilder(ModelBinding.fingerprint(savedModelDir));
+        FileUtils.listFiles(savedModelDir, null, true).stream().sorted().forEach(file -> snapshot
+              .append('|').append(file.getPath()).append(':').append(file.length()).append(':').append(file.lastModified()));
+        return snapshot.toString();
     }
 
     public List<HintModel> detect(File imageFile) throws IOException {
-        synchronized (ObjectDetector.this) {
-            String[] labels = loadLabels();
-            if (ArrayUtils.isEmpty(labels) || model == null) {
-                return Collections.emptyList();
+        List<HintModel> hints = detect(Collections.singletonList(imageFile)).get(0);
+        if (hints.size() <= 0) {
+            LOG.info("No objects detected with a high enough score.");
+            setStatus(bundle.getString("msg.noObjectsDetected"));
+        }
+        return hints;
+    }
+
+    /**
+     * Detects objects in a list of images. Images are packed into batches of up to {@link #MAX_BATCH_SIZE} so that
+     * each batch is inferred by a single session run. Image tensors can only be stacked when the images share the
+     * same dimensions, so decoded images are grouped by size before being submitted. Batches are run concurrently
+     * on the inference executor, which is sized by {@link Settings#getInferenceThreads()}. Images whose hints are
+     * already in the hint cache, or have been stored by the {@link DetectionStore} with the same model and labels
+     * unless it is turned off with {@link #setUseDetectionStore(boolean)}, are not inferred again.
+     * <p>
+     * Decoded images are downscaled to the model input size or to {@link Settings#getInferenceMaxSide()} before
+     * inference, while hints are reported in the coordinates of the original images. Images larger than
+     * {@link Settings#getInferenceTileSize()} are instead cut into overlapping tiles, which are decoded a band of
+     * rows at a time and inferred in parallel.
+     * </p>
+     * <p>
+     * Each batch tensor is also run concurrently through the ensemble models taking the same input, and their boxes
+     * are combined with weighted box fusion. Boxes scoring below {@link Settings#getHintMinScore()} are dropped as
+     * soon as they are read from the output tensors, and overlapping boxes, including duplicates across tile seams,
+     * are merged with class-aware non-maximum suppression and limited to {@link Settings#getHintMaxPerClass()} per
+     * label, before any hint is created unless the hints are stored.
+     * </p>
+     *
+     * @param imageFiles the images to detect objects in
+     * @return the hints for each image, in the same order as <code>imageFiles</code>
+     */
+    public List<List<HintModel>> detect(List<File> imageFiles) throws IOException {
+        try (InferenceMetrics.Timer timer = InferenceMetrics.start(Stage.DETECT)) {
+            return detectObjects(imageFiles);
+        }
+    }
+
+    private List<List<HintModel>> detectObjects(List<File> imageFiles) throws IOException {
+        List<List<HintModel>> results = new ArrayList<>(imageFiles.size());
+        imageFiles.forEach(file -> results.add(new ArrayList<>()));
+
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < imageFiles.size(); i++) {
+            List<HintModel> cached = hintCache.get(imageFiles.get(i));
+            if (cached != null) {
+                results.set(i, cached);
             }
-            List<HintModel> hints = new ArrayList();
-            Result result;
-            Tensor input = null;
-            String operation = "";
-            BufferedImage img = ImageIO.read(imageFile);
+            else {
+                missing.add(i);
+            }
+        }
 
-            MetaGraphDef m = MetaGraphDef.parseFrom(model.metaGraphDef().toByteArray());
-            SignatureDef sig = m.getSignatureDefOrThrow("serving_default");
+        String[] labels = loadLabels();
+        if (ArrayUtils.isEmpty(labels) || missing.isEmpty()) {
+            return results;
+        }
+        ModelBinding binding;
+        try {
+            binding = acquireBinding();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading saved model", ex);
+        }
+        if (binding == null) {
+            return results;
+        }
+        Ensemble models = acquireEnsemble(binding, labels);
+        List<Future<?>> batches = new ArrayList<>();
+        Detections[] detections = new Detections[imageFiles.size()];
+        InferencePool pool = null;
+        try {
+            pool = acquirePool();
+            ExecutorService executor = pool.executor;
+            float minScore = Settings.getHintMinScore() / 100f;
+            int maxPerClass = Settings.getHintMaxPerClass();
+            boolean useStore = useDetectionStore;
+            // Detections are stored down to a low score, so that changing the hint thresholds does not need inference.
+            // Fused scores depend on every box in a cluster, so an ensemble only fuses boxes scoring at least the hint
+            // threshold, and gives the same hints whether or not the store is used.
+            float floor = useStore && models.size() == 1 ? Math.min(minScore, STORED_MIN_SCORE) : minScore;
+            String fingerprint = fingerprint(models);
+            for (Iterator<Integer> it = missing.iterator(); useStore && it.hasNext(); ) {
+                int i = it.next();
+                List<HintModel> stored = detectionStore.load(imageFiles.get(i), fingerprint, minScore);
+                if (stored != null) {
+                    results.set(i, limit(stored, minScore, maxPerClass));
+                    hintCache.put(imageFiles.get(i), results.get(i));
+                    it.remove();
+                }
+            }
+            missing.forEach(i -> detections[i] = new Detections());
+            int batchSize = models.batchSize;
+            if (binding.isEncodedInput()) {
+                for (int from = 0; from < missing.size(); from += batchSize) {
+                    List<Integer> indices = new ArrayList<>();
+                    List<Rectangle> regions = new ArrayList<>();
+                    for (int i : missing.subList(from, Math.min(from + batchSize, missing.size()))) {
+                        Dimension size = readImageSize(imageFiles.get(i));
+                        if (size == null) {
+                            LOG.warning("Unable to read " + imageFiles.get(i));
+                            continue;
+                        }
+                        indices.add(i);
+                        regions.add(new Rectangle(size));
+                    }
+                    if (indices.isEmpty()) {
+                        continue;
+                    }
+                    List<File> files = indices.stream().map(imageFiles::get).collect(Collectors.toList());
+                    batches.add(executor.submit(() -> {
+                        try (Tensor input = makeImageStringTensor(files)) {
+                            run(models, input, indices, regions, floor, detections);
+                        }
+                        return null;
+                    }));
+                }
+            }
+            else {
+                // Group images of the same size, and submit a batch whenever a group is full. Decoding stays only a
+                // few batches ahead of inference, so that a long list of images is never all held in memory
+                Map<Dimension, List<Integer>> pending = new LinkedHashMap<>();
+                Map<Integer, DecodedImage> decoded = new HashMap<>();
+                int tileSize = Settings.getInferenceTileSize();
+                int maxQueued = Math.max(1, Settings.getInferenceThreads()) * MAX_QUEUED_BATCHES;
+                int waited = 0;
+                for (int i : missing) {
+                    while (batches.size() - waited > maxQueued) {
+                        batches.get(waited++).get();
+                    }
+                    if (tileSize > 0) {
+                        Dimension size = readImageSize(imageFiles.get(i));
+                        if (size != null && Math.max(size.width, size.height) > tileSize) {
+                            batches.addAll(submitTiles(executor, models, imageFiles.get(i), i, size, tileSize, floor, detections));
+                            continue;
+                        }
+                    }
+                    DecodedImage img = readImage(imageFiles.get(i), null, binding);
+                    if (img == null) {
+                        LOG.warning("Unable to read " + imageFiles.get(i));
+                        continue;
+                    }
+                    decoded.put(i, img);
+                    Dimension scaled = new Dimension(img.image.getWidth(), img.image.getHeight());
+                    List<Integer> group = pending.computeIfAbsent(scaled, k -> new ArrayList<>());
+                    group.add(i);
+                    if (group.size() >= batchSize) {
+                        batches.add(submitBatch(executor, models, group, decoded, floor, detections));
+                        group.clear();
+                    }
+                    else if (decoded.size() >= MAX_PENDING_IMAGES) {
+                        // Mixed sizes rarely fill their groups, so submit them partially rather than keep them all
+                        for (List<Integer> partial : pending.values()) {
+                            if (!partial.isEmpty()) {
+                                batches.add(submitBatch(executor, models, partial, decoded, floor, detections));
+                                partial.clear();
+                            }
+                        }
+                    }
+                }
+                for (List<Integer> group : pending.values()) {
+                    if (!group.isEmpty()) {
+                        batches.add(submitBatch(executor, models, group, decoded, floor, detections));
+                    }
+                }
+            }
+            for (Future<?> batch : batches) {
+                batch.get();
+            }
+            Map<Integer, List<HintModel>> unfiltered = new HashMap<>();
+            try (InferenceMetrics.Timer timer = InferenceMetrics.start(Stage.POST_PROCESS)) {
+                missing.forEach(i -> {
+                    if (models.size() > 1) {
+                        detections[i].fuse(models.size(), WBF_IOU_THRESHOLD);
+                    }
+                    // Suppressing and capping before thresholding gives the same boxes, as a box is only suppressed or
+                    // capped by higher ones. Stored hints are kept uncapped so that the cap can change without
+                    // inference, and are capped by limit() instead
+                    detections[i].suppress(NMS_IOU_THRESHOLD, useStore ? 0 : maxPerClass);
+                    List<HintModel> hints = detections[i].toHints(models.labels);
+                    if (useStore) {
+                        unfiltered.put(i, hints);
+                    }
+                    results.set(i, limit(hints, minScore, useStore ? maxPerClass : 0));
+                });
+            }
+            // Hints of a model that has been swapped out in the meantime are not cached
+            if (this.binding.get() == binding) {
+                missing.forEach(i -> {
+                    hintCache.put(imageFiles.get(i), results.get(i));
+                    if (useStore) {
+                        detectionStore.save(imageFiles.get(i), fingerprint, floor, unfiltered.get(i));
+                    }
+                });
+            }
+            return results;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while detecting objects", ex);
+        }
+        catch (ExecutionException ex) {
+            throw new IOException("Unable to detect objects", ex.getCause());
+        }
+        catch (RejectedExecutionException ex) {
+            throw new IOException("Inference executor has been shut down", ex);
+        }
+        finally {
+            // Wait for batches that are still running before releasing the model
+            for (Future<?> batch : batches) {
+                try {
+                    batch.get();
+                }
+                catch (Exception ex) {}
+            }
+            models.release();
+            if (pool != null) {
+                pool.release();
+            }
+        }
+    }
 
-            try {
-                if (model.graph().operation("image_tensor") != null) {
-                    operation = "image_tensor";
-                    input = makeImageTensor(img);
+    /**
+     * @return the cached hints of <code>imageFile</code>, or null if it has not been detected with the current model
+     */
+    public List<HintModel> getCachedHints(File imageFile) {
+        return hintCache.get(imageFile);
+    }
+
+    public boolean hasCachedHints(File imageFile) {
+        return hintCache.contains(imageFile);
+    }
+
+    /**
+     * Stored hints depend on the models, the label names the class ids are mapped to and how images are prepared for
+     * inference, but not on the hint thresholds, which are applied when hints are loaded
+     */
+    private static String fingerprint(Ensemble models) {
+        String options = models.members.stream().map(ModelBinding::getFingerprint).collect(Collectors.joining(","))
+              + Arrays.toString(models.labels) + Settings.getInferenceMaxSide() + "/" + Settings.getInferenceTileSize();
+        return models.primary.getFingerprint() + "-" + DigestUtils.sha256Hex(options).substring(0, 8);
+    }
+
+    /**
+     * @param hints hints in descending score order
+     * @return the hints scoring at least <code>minScore</code>, at most <code>maxPerClass</code> of each label if it is
+     * positive
+     */
+    private static List<HintModel> limit(List<HintModel> hints, float minScore, int maxPerClass) {
+        Map<String, Integer> counts = new HashMap<>();
+        List<HintModel> limited = new ArrayList<>();
+        for (HintModel hint : hints) {
+            if (hint.getScore() >= minScore
+                    && (maxPerClass <= 0 || counts.merge(hint.getName(), 1, Integer::sum) <= maxPerClass)) {
+                limited.add(hint);
+            }
+        }
+        return limited;
+    }
+
+    /**
+     * Acquires the ensemble models that take the same input as <code>binding</code>, and maps their class ids to a
+     * common label list, which starts with <code>labels</code> so that the ids of the saved model are unchanged
+     */
+    private Ensemble acquireEnsemble(ModelBinding binding, String[] labels) {
+        List<String> names = new ArrayList<>(Arrays.asList(labels));
+        Ensemble models = new Ensemble(binding);
+        for (EnsembleMember member : ensembleMembers.get()) {
+            ModelBinding other = member.binding;
+            if (other.isEncodedInput() != binding.isEncodedInput()
+                  || other.getInputWidth() != binding.getInputWidth() || other.getInputHeight() != binding.getInputHeight()) {
+                LOG.fine("Ensemble model " + other.getFingerprint() + " takes a different input, skipped");
+                continue;
+            }
+            if (!other.acquire()) {
+                continue;
+            }
+            int[] classMap = new int[member.labels.length];
+            for (int id = 0; id < classMap.length; id++) {
+                String name = member.labels[id];
+                int index = name == null ? -1 : names.indexOf(name);
+                if (name != null && index < 0) {
+                    index = names.size();
+                    names.add(name);
                 }
-                else if (model.graph().operation("encoded_image_string_tensor") != null) {
-                    operation = "encoded_image_string_tensor";
-                    input = makeImageStringTensor(imageFile);
+                classMap[id] = index;
+            }
+            models.members.add(other);
+            models.classMaps.add(classMap);
+            models.batchSize = Math.min(models.batchSize, other.getBatchSize());
+        }
+        models.labels = names.toArray(new String[0]);
+        return models;
+    }
+
+    private InferencePool acquirePool() throws IOException {
+        while (true) {
+            InferencePool current = inferencePool;
+            if (current.acquire()) {
+                return current;
+            }
+            // Retired without a replacement when the detector is closed
+            if (current == inferencePool) {
+                throw new IOException("Object detector has been closed");
+            }
+        }
+    }
+
+    private ModelBinding acquireBinding() throws InterruptedException {
+        // Wait for the initial model to be loaded rather than detecting nothing
+        Future<?> load = pendingLoad;
+        if (binding.get() == null && load != null) {
+            try {
+                load.get();
+            }
+            catch (ExecutionException | CancellationException ex) {}
+        }
+        while (true) {
+            ModelBinding current = binding.get();
+            if (current == null || current.acquire()) {
+                return current;
+            }
+            // Swapped and closed in the meantime, retry with the new binding
+        }
+    }
+
+    private Future<?> submitBatch(ExecutorService executor, Ensemble models, List<Integer> indices,
+                                  Map<Integer, DecodedImage> decoded, float minScore, Detections[] detections) {
+        List<Integer> batch = new ArrayList<>(indices);
+        List<DecodedImage> decodedImages = batch.stream().map(decoded::remove).collect(Collectors.toList());
+        List<BufferedImage> images = decodedImages.stream().map(img -> img.image).collect(Collectors.toList());
+        List<Rectangle> regions = decodedImages.stream().map(img -> img.region).collect(Collectors.toList());
+        return executor.submit(() -> {
+            try (Tensor input = makeImageTensor(images)) {
+                run(models, input, batch, regions, minScore, detections);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Submits the overlapping tiles of an image a row at a time. Each row decodes one full-width band covering its
+     * tiles and cuts the tiles out of it, so the image is decoded once per row rather than once per tile, and only a
+     * band of the image is held in memory at once by each inference thread.
+     */
+    private List<Future<?>> submitTiles(ExecutorService executor, Ensemble models, File imageFile, int index,
+                                        Dimension size, int tileSize, float minScore, Detections[] detections) {
+        int tileWidth = Math.min(tileSize, size.width);
+        int tileHeight = Math.min(tileSize, size.height);
+        List<Integer> columns = getTileOffsets(size.width, tileWidth);
+        List<Future<?>> batches = new ArrayList<>();
+        for (int y : getTileOffsets(size.height, tileHeight)) {
+            Rectangle band = new Rectangle(0, y, size.width, tileHeight);
+            batches.add(executor.submit(() -> {
+                DecodedImage decoded = readImage(imageFile, band, null);
+                if (decoded == null) {
+                    throw new IOException("Unable to read " + imageFile);
                 }
-                else if (sig.containsInputs("input_tensor")) {
-                    TensorInfo tensorInfo = sig.getInputsOrThrow("input_tensor");
-                    operation = tensorInfo.getName();
-                    input = tensorInfo.getDtype() == DataType.DT_STRING ? makeImageStringTensor(imageFile) : makeImageTensor(img);
+                Dimension target = getTargetSize(new Dimension(tileWidth, tileHeight), models.primary, false);
+                for (int from = 0; from < columns.size(); from += models.batchSize) {
+                    List<Rectangle> regions = new ArrayList<>();
+                    List<BufferedImage> images = new ArrayList<>();
+                    for (int x : columns.subList(from, Math.min(from + models.batchSize, columns.size()))) {
+                        regions.add(new Rectangle(x, y, tileWidth, tileHeight));
+                        // Copied, as tiles overlap and their pixels are converted in place
+                        BufferedImage tile = new BufferedImage(target.width, target.height, BufferedImage.TYPE_3BYTE_BGR);
+                        Graphics2D g = tile.createGraphics();
+                        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                        g.drawImage(decoded.image.getSubimage(x, 0, tileWidth, tileHeight), 0, 0, target.width, target.height, null);
+                        g.dispose();
+                        images.add(tile);
+                    }
+                    try (Tensor input = makeImageTensor(images)) {
+                        run(models, input, Collections.nCopies(regions.size(), index), regions, minScore, detections);
+                    }
                 }
-                result = model.session()
-                      .runner()
-                      .feed(operation, input)
-                      .fetch(sig.getOutputsOrThrow("detection_scores").getName())
-                      .fetch(sig.getOutputsOrThrow("detection_classes").getName())
-                      .fetch(sig.getOutputsOrThrow("detection_boxes").getName())
-                      .run();
+                return null;
+            }));
+        }
+        return batches;
+    }
+
+    /**
+     * @return the offsets of tiles covering <code>length</code>, with the last tile aligned to the end
+     */
+    private static List<Integer> getTileOffsets(int length, int tile) {
+        int stride = Math.max(1, (int)(tile * (1 - TILE_OVERLAP)));
+        List<Integer> offsets = new ArrayList<>();
+        for (int offset = 0; ; offset += stride) {
+            if (offset + tile >= length) {
+                offsets.add(Math.max(0, length - tile));
+                return offsets;
             }
-            finally {
-                if (input != null) {
-                    input.close();
+            offsets.add(offset);
+        }
+    }
+
+    /**
+     * Runs a batch of images through the saved model and, concurrently, through each ensemble model, sharing the same
+     * input tensor
+     */
+    private void run(Ensemble models, Tensor input, List<Integer> indices, List<Rectangle> regions, float minScore,
+                     Detections[] detections) throws Exception {
+        List<Future<?>> runs = new ArrayList<>();
+        try {
+            for (int m = 0; m < models.members.size(); m++) {
+                ModelBinding member = models.members.get(m);
+                int[] classMap = models.classMaps.get(m);
+                runs.add(ensembleExecutor.submit(() -> run(member, classMap, input, indices, regions, minScore, detections)));
+            }
+            run(models.primary, null, input, indices, regions, minScore, detections);
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        }
+        finally {
+            // The input tensor is closed by the caller, so wait for every model to be done with it
+            for (Future<?> run : runs) {
+                try {
+                    run.get();
                 }
+                catch (Exception ex) {}
             }
-            try (TFloat32 scoresT = (TFloat32)result.get(0);
-                 TFloat32 classesT = (TFloat32)result.get(1);
-                 TFloat32 boxesT = (TFloat32)result.get(2)) {
-                // All these tensors have:
-                // - 1 as the first dimension
-                // - maxObjects as the second dimension
-                // While boxesT will have 4 as the third dimension (2 sets of (x, y) coordinates).
-                // This can be verified by looking at scoresT.shape() etc.
-                int maxObjects = (int) scoresT.shape().asArray()[1];
+        }
+    }
+
+    /**
+     * Runs a batch of images, adding the boxes detected in each to the detections of the image at the same position in
+     * <code>indices</code>. Each image covers the matching region of its original image. Boxes scoring below
+     * <code>minScore</code> are skipped, and class ids are translated with <code>classMap</code> if given.
+     */
+    private static void run(ModelBinding binding, int[] classMap, Tensor input, List<Integer> indices,
+                            List<Rectangle> regions, float minScore, Detections[] detections) {
+        Result result;
+        try (InferenceMetrics.Timer timer = InferenceMetrics.start(Stage.SESSION_RUN)) {
+            result = binding.getModel().session()
+                  .runner()
+                  .feed(binding.getInputOp(), input)
+                  .fetch(binding.getScoresOp())
+                  .fetch(binding.getClassesOp())
+                  .fetch(binding.getBoxesOp())
+                  .run();
+        }
+        try (TFloat32 scoresT = (TFloat32)result.get(0);
+             TFloat32 classesT = (TFloat32)result.get(1);
+             TFloat32 boxesT = (TFloat32)result.get(2)) {
+            // All these tensors have:
+            // - batch size as the first dimension
+            // - maxObjects as the second dimension
+            // While boxesT will have 4 as the third dimension (2 sets of (x, y) coordinates).
+            // This can be verified by looking at scoresT.shape() etc.
+            // Boxes are normalized, so scaling them by the region size undoes any downscaling.
+            int maxObjects = (int) scoresT.shape().asArray()[1];
+            for (int b = 0; b < indices.size(); b++) {
+                Rectangle region = regions.get(b);
+                Detections boxes = detections[indices.get(b)];
                 for (int i = 0; i < maxObjects; i++) {
-                    float score = scoresT.getFloat(0, i);
-                    if (score < 0.5) {
+                    float score = scoresT.getFloat(b, i);
+                    if (score < minScore) {
                         continue;
                     }
-                    float ymin = boxesT.getFloat(0, i, 0) * img.getHeight();
-                    float xmin = boxesT.getFloat(0, i, 1) * img.getWidth();
-                    float ymax = boxesT.getFloat(0, i, 2) * img.getHeight();
-                    float xmax = boxesT.getFloat(0, i, 3) * img.getWidth();
-                    int id = (int) classesT.getFloat(0, i);
-                    if (id < labels.length) {
-                        HintModel model = new HintModel(labels[id], xmin, ymin, xmax, ymax);
-                        model.setScore(score);
-                        hints.add(model);
+                    float ymin = region.y + boxesT.getFloat(b, i, 0) * region.height;
+                    float xmin = region.x + boxesT.getFloat(b, i, 1) * region.width;
+                    float ymax = region.y + boxesT.getFloat(b, i, 2) * region.height;
+                    float xmax = region.x + boxesT.getFloat(b, i, 3) * region.width;
+                    int id = (int) classesT.getFloat(b, i);
+                    if (classMap != null) {
+                        id = id >= 0 && id < classMap.length ? classMap[id] : -1;
                     }
-                }
-                if (hints.size() <= 0) {
-                    LOG.info("No objects detected with a high enough score.");
-                    Platform.runLater(() -> statusProperty.set(bundle.getString("msg.noObjectsDetected")));
+                    boxes.add(xmin, ymin, xmax, ymax, score, id);
                 }
             }
-            return hints;
         }
     }
 
-    private static void printSignature(SavedModelBundle model) {
+    private static ExecutorService createInferenceExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "Object Detector " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static void printSignature(SignatureDef sig) {
         try {
-            MetaGraphDef m = MetaGraphDef.parseFrom(model.metaGraphDef().toByteArray());
-            SignatureDef sig = m.getSignatureDefOrThrow("serving_default");
             int numInputs = sig.getInputsCount();
             int i = 1;
             LOG.info("MODEL SIGNATURE");
@@ -252,16 +922,10 @@ public class ObjectDetector implements AutoCloseable
         catch (Exception ex) {}
     }
 
-    private static String[] loadLabels() {
+    private String[] loadLabels() {
         try {
             Path labelMapPath = Paths.get(Settings.getTFLabelMapFile());
-            List<LabelMapItem> items = TFTrainer.getLabelMapItems(labelMapPath);
-            int maxId = items.stream().mapToInt(item -> item.getId()).max().orElse(0);
-            String[] ret = new String[maxId + 1];
-            for (LabelMapItem item : items) {
-                ret[item.getId()] = item.getName();
-            }
-            return ret;
+            return labelMapCache.get(labelMapPath);
         }
         catch (Exception ex) {
             LOG.log(Level.SEVERE, "Unable to parse label map", ex);
@@ -269,44 +933,284 @@ public class ObjectDetector implements AutoCloseable
         return new String[1];
     }
 
-    private static void bgr2rgb(byte[] data) {
-        for (int i = 0; i < data.length; i += 3) {
-            byte tmp = data[i];
-            data[i] = data[i + 2];
-            data[i + 2] = tmp;
+    /**
+     * Reads the image dimensions from the image header without decoding the pixels
+     */
+    public static Dimension readImageSize(File imageFile) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(imageFile)) {
+            Iterator<ImageReader> readers = iis == null ? Collections.emptyIterator() : ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            }
+            finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes an image for inference, downscaled to the fixed input size of the model if it has one, or otherwise so
+     * that its longest side is at most {@link Settings#getInferenceMaxSide()}. Large images are subsampled by the
+     * image reader while decoding, so that full resolution pixels are never held in memory, and then resized to the
+     * exact target size. When a <code>region</code> is given, only that band of the image is decoded, and it is kept at
+     * full resolution unless the model has a fixed input size. Without a <code>binding</code>, the image is decoded at
+     * full resolution.
+     *
+     * @return the decoded image along with the region of the original image it covers, or null if the image cannot
+     * be read
+     */
+    private static DecodedImage readImage(File imageFile, Rectangle region, ModelBinding binding) throws IOException {
+        try (InferenceMetrics.Timer timer = InferenceMetrics.start(Stage.DECODE);
+             ImageInputStream iis = ImageIO.createImageInputStream(imageFile)) {
+            Iterator<ImageReader> readers = iis == null ? Collections.emptyIterator() : ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (region == null) {
+                    region = new Rectangle(reader.getWidth(0), reader.getHeight(0));
+                }
+                else {
+                    param.setSourceRegion(region);
+                }
+                Dimension size = region.getSize();
+                Dimension target = getTargetSize(size, binding, param.getSourceRegion() == null);
+                int subsampling = Math.max(1, Math.min(size.width / target.width, size.height / target.height));
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                BufferedImage img = reader.read(0, param);
+                if (img.getWidth() != target.width || img.getHeight() != target.height) {
+                    BufferedImage scaled = new BufferedImage(target.width, target.height, BufferedImage.TYPE_3BYTE_BGR);
+                    Graphics2D g = scaled.createGraphics();
+                    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    g.drawImage(img, 0, 0, target.width, target.height, null);
+                    g.dispose();
+                    img = scaled;
+                }
+                return new DecodedImage(img, region);
+            }
+            finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static Dimension getTargetSize(Dimension size, ModelBinding binding, boolean downscale) {
+        if (binding == null) {
+            return size;
+        }
+        if (binding.getInputWidth() > 0 && binding.getInputHeight() > 0) {
+            return new Dimension(binding.getInputWidth(), binding.getInputHeight());
         }
+        int maxSide = downscale ? Settings.getInferenceMaxSide() : 0;
+        int longest = Math.max(size.width, size.height);
+        if (maxSide <= 0 || longest <= maxSide) {
+            return size;
+        }
+        double scale = (double)maxSide / longest;
+        return new Dimension(Math.max(1, (int)Math.round(size.width * scale)),
+              Math.max(1, (int)Math.round(size.height * scale)));
     }
 
-    private static Tensor makeImageTensor(BufferedImage img) throws IOException {
-        if (img.getType() == BufferedImage.TYPE_BYTE_INDEXED
-              || img.getType() == BufferedImage.TYPE_BYTE_BINARY
-              || img.getType() == BufferedImage.TYPE_BYTE_GRAY
-              || img.getType() == BufferedImage.TYPE_USHORT_GRAY) {
-            BufferedImage bgr = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-            bgr.getGraphics().drawImage(img, 0, 0, null);
-            img = bgr;
+    /**
+     * An inference executor shared by concurrent detections, shut down once it has been retired and the last detection
+     * using it has released it
+     */
+    private static class InferencePool
+    {
+        private final ExecutorService executor;
+        private int users;
+        private boolean retired;
+
+        private InferencePool(ExecutorService executor) {
+            this.executor = executor;
         }
-        if (img.getType() != BufferedImage.TYPE_3BYTE_BGR) {
-            throw new IOException(
-                    String.format(
-                            "Expected 3-byte BGR encoding in BufferedImage, found %d. This code could be made more robust",
-                            img.getType()));
+
+        private synchronized boolean acquire() {
+            if (retired) {
+                return false;
+            }
+            users++;
+            return true;
+        }
+
+        private synchronized void release() {
+            if (--users == 0 && retired) {
+                executor.shutdown();
+            }
         }
-        byte[] data = ((DataBufferByte) img.getData().getDataBuffer()).getData();
-        // ImageIO.read seems to produce BGR-encoded images, but the model expects RGB.
-        bgr2rgb(data);
-        final long BATCH_SIZE = 1;
+
+        private synchronized void retire() {
+            retired = true;
+            if (users == 0) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private static class EnsembleMember
+    {
+        private final ModelBinding binding;
+        private final String[] labels;
+
+        private EnsembleMember(ModelBinding binding, String[] labels) {
+            this.binding = binding;
+            this.labels = labels;
+        }
+    }
+
+    /**
+     * The models a detection runs on, acquired for the duration of the detection
+     */
+    private static class Ensemble
+    {
+        private final ModelBinding primary;
+        private final List<ModelBinding> members = new ArrayList<>();
+        private final List<int[]> classMaps = new ArrayList<>();
+        private String[] labels;
+        private int batchSize;
+
+        private Ensemble(ModelBinding primary) {
+            this.primary = primary;
+            this.batchSize = primary.getBatchSize();
+        }
+
+        private int size() {
+            return members.size() + 1;
+        }
+
+        private void release() {
+            members.forEach(ModelBinding::release);
+            primary.release();
+        }
+    }
+
+    private static class DecodedImage
+    {
+        private final BufferedImage image;
+        // Region of the original image, before downscaling
+        private final Rectangle region;
+
+        private DecodedImage(BufferedImage image, Rectangle region) {
+            this.image = image;
+            this.region = region;
+        }
+    }
+
+    /**
+     * Stacks images of the same size into a single <code>[N, height, width, 3]</code> tensor. Pixels are written
+     * straight into the tensor buffer in RGB order: 3-byte BGR rasters are swapped in place, as the decoded images are
+     * not used afterwards, while other image types are converted through a scratch buffer kept per thread.
+     */
+    private static Tensor makeImageTensor(List<BufferedImage> images) throws IOException {
+        int width = images.get(0).getWidth();
+        int height = images.get(0).getHeight();
         final long CHANNELS = 3;
-        Shape shape = Shape.of(BATCH_SIZE, img.getHeight(), img.getWidth(), CHANNELS);
-        return TUint8.tensorOf(shape, DataBuffers.of(data));
+        int imageSize = (int)(width * height * CHANNELS);
+        for (BufferedImage img : images) {
+            if (img.getWidth() != width || img.getHeight() != height) {
+                throw new IOException("Images in a batch must have the same dimensions");
+            }
+        }
+        Shape shape = Shape.of(images.size(), height, width, CHANNELS);
+        try (InferenceMetrics.Timer timer = InferenceMetrics.start(Stage.TENSOR)) {
+            return TUint8.tensorOf(shape, tensor -> {
+                ByteDataBuffer buffer = tensor.asRawTensor().data();
+                for (int i = 0; i < images.size(); i++) {
+                    buffer.offset((long)i * imageSize).write(toRGB(images.get(i), imageSize), 0, imageSize);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the RGB pixels of <code>img</code>, either in its own raster or in the scratch buffer of this thread
+     */
+    static byte[] toRGB(BufferedImage img, int imageSize) {
+        int width = img.getWidth();
+        if (img.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            byte[] pixels = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+            if (pixels.length == imageSize) {
+                // ImageIO.read seems to produce BGR-encoded images, but the model expects RGB.
+                for (int i = 0; i < imageSize; i += 3) {
+                    byte tmp = pixels[i];
+                    pixels[i] = pixels[i + 2];
+                    pixels[i + 2] = tmp;
+                }
+                return pixels;
+            }
+        }
+        byte[] rgb = scratch.get().bytes(imageSize);
+        if (img.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            byte[] gray = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+            if (gray.length * 3 == imageSize) {
+                for (int i = 0, j = 0; i < gray.length; i++) {
+                    rgb[j++] = gray[i];
+                    rgb[j++] = gray[i];
+                    rgb[j++] = gray[i];
+                }
+                return rgb;
+            }
+        }
+        // Indexed, packed and 16-bit images are converted a row at a time
+        int[] row = scratch.get().row(width);
+        for (int y = 0, j = 0; y < img.getHeight(); y++) {
+            img.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                rgb[j++] = (byte)(argb >> 16);
+                rgb[j++] = (byte)(argb >> 8);
+                rgb[j++] = (byte)argb;
+            }
+        }
+        return rgb;
+    }
+
+    // Conversion buffers of each inference thread, grown to the largest image seen
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private static class Scratch
+    {
+        private byte[] bytes = new byte[0];
+        private int[] row = new int[0];
+
+        private byte[] bytes(int size) {
+            if (bytes.length < size) {
+                bytes = new byte[size];
+            }
+            return bytes;
+        }
+
+        private int[] row(int size) {
+            if (row.length < size) {
+                row = new int[size];
+            }
+            return row;
+        }
     }
 
     /**
      * See <a href="https://github.com/tensorflow/tensorflow/issues/24331#issuecomment-447523402">GitHub issue</a>
      */
-    private static Tensor makeImageStringTensor(File imageFile) throws IOException {
-        var content = FileUtils.readFileToByteArray(imageFile);
-        return TString.tensorOfBytes(Shape.of(1), DataBuffers.ofObjects(content));
+    private static Tensor makeImageStringTensor(List<File> imageFiles) throws IOException {
+        byte[][] contents = new byte[imageFiles.size()][];
+        try (InferenceMetrics.Timer timer = InferenceMetrics.start(Stage.DECODE)) {
+            for (int i = 0; i < contents.length; i++) {
+                contents[i] = FileUtils.readFileToByteArray(imageFiles.get(i));
+            }
+        }
+        try (InferenceMetrics.Timer timer = InferenceMetrics.start(Stage.TENSOR)) {
+            return TString.tensorOfBytes(Shape.of(contents.length), DataBuffers.ofObjects(contents));
+        }
     }
 
     /**
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.easymobo.openlabeler.tensorflow;
+
+import com.easymobo.openlabeler.model.Annotation;
+import com.easymobo.openlabeler.util.AppUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.tensorflow.hadoop.util.TFRecordCompression;
+
+import java.io.File;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records which annotation went into which record file, so that record files can be rebuilt incrementally. Each
+ * annotation file has an {@link Entry} with the modification time and SHA-256 of the annotation and its image, and the
+ * shard and byte range of its record before compression. A manifest only applies to records created with the same
+ * label map, number of shards, image options and compression.
+ */
+public class RecordManifest
+{
+    private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getCanonicalName());
+    public static final String FILE_NAME = "record_manifest.json";
+
+    private final Map<String, Integer> labelMap;
+    private final int shards;
+    private final String imageOptions;
+    private final TFRecordCompression compression;
+    private final Map<String, Long> recordSizes = new ConcurrentHashMap<>();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public RecordManifest(Map<String, Integer> labelMap, int shards, String imageOptions, TFRecordCompression compression) {
+        this.labelMap = labelMap;
+        this.shards = shards;
+        this.imageOptions = imageOptions;
+        this.compression = compression;
+    }
+
+    /**
+     * @return the manifest in <code>dataPath</code>, or an empty one if there is none or it was created with a
+     * different label map, number of shards, image options or compression
+     */
+    public static RecordManifest load(Path dataPath, Map<String, Integer> labelMap, int shards, String imageOptions,
+                                      TFRecordCompression compression) {
+        RecordManifest manifest = new RecordManifest(labelMap, shards, imageOptions, compression);
+        File file = dataPath.resolve(FILE_NAME).toFile();
+        if (!file.exists()) {
+            return manifest;
+        }
+        try {
+            JsonNode root = AppUtils.createJSONMapper().readTree(file);
+            Map<String, Integer> savedLabelMap = new HashMap<>();
+            root.get("labelMap").fields().forEachRemaining(field -> savedLabelMap.put(field.getKey(), field.getValue().asInt()));
+            if (!savedLabelMap.equals(labelMap) || root.get("shards").asInt() != shards
+                    || !imageOptions.equals(root.path("imageOptions").asText())
+                    || !compression.name().equals(root.path("compression").asText(TFRecordCompression.NONE.name()))) {
+                LOG.info("Label map, number of shards, image options or compression changed, rebuilding all records");
+                return manifest;
+            }
+            root.get("records").fields().forEachRemaining(field -> manifest.recordSizes.put(field.getKey(), field.getValue().asLong()));
+            for (JsonNode node : root.get("entries")) {
+                Entry entry = new Entry(node.get("split").asText(), node.get("shard").asInt());
+                if (node.has("labels")) {
+                    node.get("labels").forEach(label -> entry.labels.add(label.asText()));
+                }
+                entry.annotation = node.get("annotation").asText();
+                entry.annotationModified = node.get("annotationModified").asLong();
+                entry.annotationSha256 = node.get("annotationSha256").asText();
+                entry.image = node.hasNonNull("image") ? node.get("image").asText() : null;
+                entry.imageModified = node.get("imageModified").asLong();
+                entry.imageSha256 = node.hasNonNull("imageSha256") ? node.get("imageSha256").asText() : null;
+                entry.perceptualHash = node.hasNonNull("perceptualHash") ? node.get("perceptualHash").asLong() : null;
+                entry.duplicate = node.path("duplicate").asBoolean();
+                entry.offset = node.get("offset").asLong();
+                entry.length = node.get("length").asLong();
+                manifest.entries.put(entry.annotation, entry);
+            }
+        }
+        catch (Exception ex) {
+            LOG.log(Level.WARNING, "Unable to load " + file + ", rebuilding all records", ex);
+            manifest.recordSizes.clear();
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+
+    public void save(Path dataPath) {
+        try {
+            ObjectMapper mapper = AppUtils.createJSONMapper();
+            ObjectNode root = mapper.createObjectNode();
+            ObjectNode labels = root.putObject("labelMap");
+            labelMap.forEach(labels::put);
+            root.put("shards", shards);
+            root.put("imageOptions", imageOptions);
+            root.put("compression", compression.name());
+            ObjectNode records = root.putObject("records");
+            new TreeMap<>(recordSizes).forEach(records::put);
+            var array = root.putArray("entries");
+            for (Entry entry : new TreeMap<>(entries).values()) {
+                ObjectNode node = array.addObject();
+                node.put("annotation", entry.annotation);
+                node.put("annotationModified", entry.annotationModified);
+                node.put("annotationSha256", entry.annotationSha256);
+                node.put("image", entry.image);
+                node.put("imageModified", entry.imageModified);
+                node.put("imageSha256", entry.imageSha256);
+                node.put("perceptualHash", entry.perceptualHash);
+                node.put("duplicate", entry.duplicate);
+                entry.labels.forEach(node.putArray("labels")::add);
+                node.put("split", entry.split);
+                node.put("shard", entry.shard);
+                node.put("offset", entry.offset);
+                node.put("length", entry.length);
+            }
+            // Write to a temporary file first, so that an interrupted save never leaves a partial manifest
+            Path temp = Files.createTempFile(dataPath, FILE_NAME, ".tmp");
+            mapper.writeValue(temp.toFile(), root);
+            Files.move(temp, dataPath.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (Exception ex) {
+            LOG.log(Level.WARNING, "Unable to save record manifest in " + dataPath, ex);
+        }
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    public Entry getEntry(String annotation) {
+        return entries.get(annotation);
+    }
+
+    public void putEntry(Entry entry) {
+        entries.put(entry.annotation, entry);
+    }
+
+    /**
+     * @return the size of record file <code>name</code> when the manifest was saved, or -1 if unknown
+     */
+    public long getRecordSize(String name) {
+        return recordSizes.getOrDefault(name, -1L);
+    }
+
+    public void setRecordSize(String name, long size) {
+        recordSizes.put(name, size);
+    }
+
+    public static class Entry
+    {
+        String annotation, annotationSha256, image, imageSha256;
+        long annotationModified, imageModified;
+        Long perceptualHash;
+        // Whether the annotation was skipped as its image duplicates another
+        boolean duplicate;
+        // Distinct object names in the annotation
+        final List<String> labels = new ArrayList<>();
+        // Split and shard of the record, shard is -1 if the annotation was skipped
+        String split;
+        int shard;
+        // Byte range of the framed record in its shard
+        long offset, length;
+        // Annotation parsed when the entry was probed, not saved and only kept until it is encoded
+        Annotation parsed;
+
+        Entry(String split, int shard) {
+            this.split = split;
+            this.shard = shard;
+        }
+
+        /**
+         * @return a stable, uniformly distributed key of the example for dividing examples into splits
+         */
+        String getSplitKey() {
+            return imageSha256 != null ? imageSha256 : annotationSha256;
+        }
+
+        Entry moveTo(long offset) {
+            Entry entry = new Entry(split, shard);
+            entry.annotation = annotation;
+            entry.annotationSha256 = annotationSha256;
+            entry.annotationModified = annotationModified;
+            entry.image = image;
+            entry.imageSha256 = imageSha256;
+            entry.imageModified = imageModified;
+            entry.perceptualHash = perceptualHash;
+            entry.labels.addAll(labels);
+            entry.offset = offset;
+            entry.length = length;
+            return entry;
+        }
+    }
+}
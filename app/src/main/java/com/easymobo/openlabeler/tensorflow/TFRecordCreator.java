@@ -17,28 +17,32 @@
 package com.easymobo.openlabeler.tensorflow;
 
 import com.easymobo.openlabeler.model.Annotation;
+import com.easymobo.openlabeler.model.ObjectModel;
 import com.easymobo.openlabeler.preference.LabelMapItem;
+import com.easymobo.openlabeler.preference.Settings;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Unmarshaller;
 import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.tensorflow.hadoop.util.TFRecordCompression;
 import org.tensorflow.hadoop.util.TFRecordWriter;
 import org.tensorflow.proto.example.*;
 
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.*;
 import java.lang.invoke.MethodHandles;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -47,7 +51,17 @@ public class TFRecordCreator
 {
     private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getCanonicalName());
 
+    private static final String TRAIN = "train", EVAL = "eval";
+    // Encoded examples held at once per worker thread, across all shard writers
+    private static final int ENCODED_PER_WORKER = 2;
+    // Examples are hashed into this many buckets, the lowest of which go to eval
+    private static final long SPLIT_BUCKETS = 10000;
+    private static final Record END_OF_SHARD = new Record(null, null);
+
     private final Path imagePath, annotationPath, dataPath;
+    private final ThreadLocal<MessageDigest> digest = ThreadLocal.withInitial(DigestUtils::getSha256Digest);
+    private ImageNormalizer normalizer;
+    private TFRecordCompression compression;
 
     // For PASCAL VOC xml persistence
     private JAXBContext jaxbContext;
@@ -77,101 +91,520 @@ public class TFRecordCreator
             dataPath.toFile().mkdirs();
         }
 
-        // Randomly divide examples into 70% train and 30% eval
         List<File> files = Arrays.asList(annotationPath.toFile().listFiles((dir, name) -> {
             name = name.toLowerCase();
             return name.endsWith(".xml");
         }));
-        Collections.shuffle(files);
-        int separator = (int)(files.size() * 0.7);
-        List<File> train = files.subList(0, separator);
-        List<File> eval = files.subList(separator, files.size());
-
-        // Generate the train and eval records
         Map<String, Integer> labelMap = items.stream().collect(
                 Collectors.toMap(LabelMapItem::getName, LabelMapItem::getId));
-        createTFRecord(train, labelMap, Paths.get(dataPath.toString(), "train.record"));
-        createTFRecord(eval, labelMap, Paths.get(dataPath.toString(), "eval.record"));
-        LOG.info("Created train/eval records in " + dataPath);
-    }
-
-    private void createTFRecord(List<File> annotations, Map<String, Integer>labelMap, Path outputPath) {
-        try (FileOutputStream fos = new FileOutputStream(outputPath.toFile())) {
-            TFRecordWriter writer = new TFRecordWriter(new DataOutputStream(fos));
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            for (File file : annotations) {
-                Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-                Annotation annotation = (Annotation) unmarshaller.unmarshal(file);
-                File imageFile = Paths.get(imagePath.toString(), annotation.getFilename()).toFile();
-                if (!imageFile.exists()) {
-                    LOG.warning("Image "+imageFile+ " does not exist");
-                    continue;
+        int shards = Math.max(1, Settings.getTFRecordShards());
+        normalizer = new ImageNormalizer(Settings.getTFImageMaxSide(), Settings.getTFJpegQuality());
+        compression = Settings.getTFRecordCompression();
+        if (compression != TFRecordCompression.NONE) {
+            LOG.warning(compression + " records need compression_type " + compression + " in the input pipeline, "
+                    + "the Object Detection API only reads uncompressed records");
+        }
+
+        RecordManifest previous = RecordManifest.load(dataPath, labelMap, shards, normalizer.getOptions(), compression);
+        RecordManifest manifest = new RecordManifest(labelMap, shards, normalizer.getOptions(), compression);
+        if (previous.isEmpty()) {
+            removeRecords();
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "TFRecord Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // Only changed and new annotations are read, the others keep their entry
+            List<RecordManifest.Entry> entries = new ArrayList<>();
+            Set<String> changed = new HashSet<>();
+            List<Future<RecordManifest.Entry>> probes = new ArrayList<>();
+            for (File file : files) {
+                RecordManifest.Entry entry = previous.getEntry(file.getName());
+                if (entry != null && isUnchanged(entry, file)) {
+                    entries.add(entry);
                 }
-                if (annotation.getObjects().size() <= 0) {
-                    LOG.warning("No objects in " + file);
-                    continue;
+                else {
+                    probes.add(workers.submit(() -> probe(file)));
+                }
+            }
+            for (Future<RecordManifest.Entry> probe : probes) {
+                try {
+                    RecordManifest.Entry entry = probe.get();
+                    entries.add(entry);
+                    changed.add(entry.annotation);
                 }
-                FileInputStream fio = new FileInputStream(imageFile);
-                byte[] imageBytes = IOUtils.toByteArray(fio);
-                String key = Hex.encodeHexString(digest.digest(imageBytes));
+                catch (ExecutionException ex) {
+                    LOG.log(Level.WARNING, "Unable to read annotation", ex.getCause());
+                }
+            }
+
+            // Duplicate images are dropped before examples are divided, so that they cannot leak into eval
+            boolean nearDuplicates = Settings.isTFDedupNearDuplicates();
+            if (nearDuplicates) {
+                computePerceptualHashes(entries, workers);
+            }
+            Deduplicator deduplicator = new Deduplicator(entries, nearDuplicates);
+            if (deduplicator.getExactCount() + deduplicator.getNearCount() > 0) {
+                LOG.info(String.format("Dropped %d exact and %d near duplicate images",
+                        deduplicator.getExactCount(), deduplicator.getNearCount()));
+            }
+            List<RecordManifest.Entry> unique = entries.stream()
+                    .filter(entry -> !deduplicator.isDuplicate(entry.annotation)).collect(Collectors.toList());
+            Map<String, String> splits = assignSplits(unique, Settings.getTFEvalPercent());
 
-                int width = annotation.getSize().getWidth();
-                int height = annotation.getSize().getHeight();
-                if (width <= 0.0 || height <= 0.0 ) {
-                    LOG.warning("Error in annotation size " + file);
+            // Unchanged examples that stay in their split keep their record, other examples are encoded
+            Map<String, Shard[]> plan = Map.of(TRAIN, createShards(shards), EVAL, createShards(shards));
+            for (RecordManifest.Entry entry : entries) {
+                RecordManifest.Entry old = previous.getEntry(entry.annotation);
+                if (deduplicator.isDuplicate(entry.annotation)) {
+                    if (old != null && old.shard >= 0) {
+                        plan.get(old.split)[old.shard].dirty = true;
+                    }
+                    entry.shard = -1;
+                    entry.duplicate = true;
+                    entry.split = TRAIN;
+                    manifest.putEntry(entry);
                     continue;
                 }
-                FloatList.Builder xmin = FloatList.newBuilder();
-                FloatList.Builder xmax = FloatList.newBuilder();
-                FloatList.Builder ymin = FloatList.newBuilder();
-                FloatList.Builder ymax = FloatList.newBuilder();
-                BytesList.Builder text = BytesList.newBuilder();
-                Int64List.Builder label = Int64List.newBuilder();
-                Int64List.Builder difficult = Int64List.newBuilder();
-                Int64List.Builder truncated = Int64List.newBuilder();
-                BytesList.Builder poses = BytesList.newBuilder();
-                annotation.getObjects().forEach(obj -> {
-                    Integer id = labelMap.get(obj.getName());
-                    if (id == null) {
-                        LOG.warning("Could not find " + obj.getName() + " in " + file + " in label map");
-                        return;
+                String split = splits.get(entry.annotation);
+                boolean moved = old != null
+                        && (changed.contains(entry.annotation) || !old.split.equals(split) || old.duplicate);
+                if (moved && old.shard >= 0) {
+                    plan.get(old.split)[old.shard].dirty = true;
+                }
+                if (old == entry && !moved) {
+                    if (entry.shard >= 0) {
+                        plan.get(split)[entry.shard].kept.add(entry);
                     }
-                    xmin.addValue((float)(obj.getBoundBox().getXMin() / width));
-                    ymin.addValue((float)(obj.getBoundBox().getYMin() / height));
-                    xmax.addValue((float)(obj.getBoundBox().getXMax() / width));
-                    ymax.addValue((float)(obj.getBoundBox().getYMax() / height));
-                    text.addValue(ByteString.copyFromUtf8(obj.getName()));
-                    label.addValue(id);
-                    difficult.addValue(0);
-                    truncated.addValue(0);
-                    poses.addValue(ByteString.copyFromUtf8("Unspecified"));
-                });
-
-                Features.Builder builder = Features.newBuilder();
-                builder.putFeature("image/height", getInt64ListFeature(annotation.getSize().getHeight()));
-                builder.putFeature("image/width", getInt64ListFeature(annotation.getSize().getWidth()));
-                builder.putFeature("image/filename", getBytesListFeature(annotation.getFilename()));
-                builder.putFeature("image/source_id", getBytesListFeature(annotation.getFilename()));
-                builder.putFeature("image/key/sha256", getBytesListFeature(key));
-                builder.putFeature("image/encoded", getBytesListFeature(imageBytes));
-                builder.putFeature("image/format", getBytesListFeature("jpeg"));
-                builder.putFeature("image/object/bbox/xmin", Feature.newBuilder().setFloatList(xmin).build());
-                builder.putFeature("image/object/bbox/xmax", Feature.newBuilder().setFloatList(xmax).build());
-                builder.putFeature("image/object/bbox/ymin", Feature.newBuilder().setFloatList(ymin).build());
-                builder.putFeature("image/object/bbox/ymax", Feature.newBuilder().setFloatList(ymax).build());
-                builder.putFeature("image/object/class/text", Feature.newBuilder().setBytesList(text).build());
-                builder.putFeature("image/object/class/label", Feature.newBuilder().setInt64List(label).build());
-                builder.putFeature("image/object/difficult", Feature.newBuilder().setInt64List(difficult).build());
-                builder.putFeature("image/object/truncated", Feature.newBuilder().setInt64List(truncated).build());
-                builder.putFeature("image/object/view", Feature.newBuilder().setBytesList(poses).build());
-
-                writer.write(Example.newBuilder().setFeatures(builder.build()).build().toByteArray());
-                fio.close();
-            }
-        }
-        catch (Exception ex) {
-            LOG.log(Level.SEVERE, "Unable to create TFRecord", ex);
+                    else {
+                        manifest.putEntry(entry);
+                    }
+                }
+                else {
+                    Shard[] candidates = plan.get(split);
+                    boolean sameShard = old != null && old.shard >= 0 && old.split.equals(split);
+                    Shard shard = sameShard ? candidates[old.shard] : getSmallest(candidates);
+                    shard.changed.add(entry);
+                    shard.dirty = true;
+                }
+            }
+            Set<String> present = files.stream().map(File::getName).collect(Collectors.toSet());
+            for (RecordManifest.Entry entry : previous.getEntries()) {
+                if (!present.contains(entry.annotation) && entry.shard >= 0) {
+                    plan.get(entry.split)[entry.shard].dirty = true;
+                }
+            }
+
+            // Generate the train and eval records
+            createTFRecord(plan.get(TRAIN), TRAIN, labelMap, Paths.get(dataPath.toString(), "train.record"), previous, manifest, workers);
+            createTFRecord(plan.get(EVAL), EVAL, labelMap, Paths.get(dataPath.toString(), "eval.record"), previous, manifest, workers);
+            manifest.save(dataPath);
+            LOG.info("Created train/eval records in " + dataPath);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Divides examples so that each example stays in its split on every build, stratified by label: the split of an
+     * example depends on a bucket of its own image hash, which is uniformly distributed, so each label is divided in
+     * about the configured proportion and adding or removing other examples does not move it. Examples are grouped by
+     * their rarest label, and a group with at least two examples that would otherwise all end up in one split gives up
+     * the example whose bucket is nearest the cut, so that every such label is both trained and evaluated.
+     *
+     * @return the split of each annotation file name
+     */
+    static Map<String, String> assignSplits(List<RecordManifest.Entry> entries, int evalPercent) {
+        long threshold = Math.max(0, Math.min(100, evalPercent)) * (SPLIT_BUCKETS / 100);
+        Map<String, Integer> frequency = new HashMap<>();
+        entries.forEach(entry -> entry.labels.forEach(label -> frequency.merge(label, 1, Integer::sum)));
+        Map<String, List<RecordManifest.Entry>> strata = new HashMap<>();
+        for (RecordManifest.Entry entry : entries) {
+            String rarest = entry.labels.stream()
+                  .min(Comparator.comparing((String label) -> frequency.get(label)).thenComparing(Comparator.naturalOrder()))
+                  .orElse("");
+            strata.computeIfAbsent(rarest, key -> new ArrayList<>()).add(entry);
         }
+        Map<String, String> splits = new HashMap<>();
+        for (List<RecordManifest.Entry> stratum : strata.values()) {
+            // Ordered by bucket, ties broken by annotation, so that the example nearest the cut is always the same
+            stratum.sort(Comparator.comparingLong(TFRecordCreator::getSplitBucket).thenComparing(entry -> entry.annotation));
+            int eval = 0;
+            for (RecordManifest.Entry entry : stratum) {
+                boolean isEval = getSplitBucket(entry) < threshold;
+                splits.put(entry.annotation, isEval ? EVAL : TRAIN);
+                eval += isEval ? 1 : 0;
+            }
+            if (stratum.size() >= 2 && threshold > 0 && threshold < SPLIT_BUCKETS) {
+                if (eval == 0) {
+                    splits.put(stratum.get(0).annotation, EVAL);
+                }
+                else if (eval == stratum.size()) {
+                    splits.put(stratum.get(stratum.size() - 1).annotation, TRAIN);
+                }
+            }
+        }
+        return splits;
+    }
+
+    /**
+     * @return the bucket of an example, below {@link #SPLIT_BUCKETS}, or {@link #SPLIT_BUCKETS} if it has no split key
+     * so that it goes to train
+     */
+    private static long getSplitBucket(RecordManifest.Entry entry) {
+        String key = entry.getSplitKey();
+        // The first 48 bits of a SHA-256 in hex are enough for an even bucket
+        return key == null ? SPLIT_BUCKETS : Long.parseLong(key.substring(0, 12), 16) % SPLIT_BUCKETS;
+    }
+
+    /**
+     * @return the entry of an annotation with what its split depends on, without encoding it
+     */
+    private RecordManifest.Entry probe(File file) throws Exception {
+        RecordManifest.Entry entry = new RecordManifest.Entry(null, -1);
+        entry.annotation = file.getName();
+        entry.annotationModified = file.lastModified();
+        entry.annotationSha256 = sha256Hex(file);
+        Annotation annotation = (Annotation) jaxbContext.createUnmarshaller().unmarshal(file);
+        entry.labels.addAll(getLabels(annotation));
+        entry.image = annotation.getFilename();
+        entry.parsed = annotation;
+        File imageFile = Paths.get(imagePath.toString(), annotation.getFilename()).toFile();
+        if (imageFile.exists()) {
+            entry.imageModified = imageFile.lastModified();
+            entry.imageSha256 = sha256Hex(imageFile);
+        }
+        return entry;
+    }
+
+    private void computePerceptualHashes(List<RecordManifest.Entry> entries, ExecutorService workers)
+            throws InterruptedException {
+        List<Future<?>> futures = new ArrayList<>();
+        for (RecordManifest.Entry entry : entries) {
+            if (entry.perceptualHash == null && entry.imageSha256 != null) {
+                futures.add(workers.submit(() -> {
+                    entry.perceptualHash = Deduplicator.perceptualHash(Paths.get(imagePath.toString(), entry.image).toFile());
+                    return null;
+                }));
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            }
+            catch (ExecutionException ex) {
+                LOG.log(Level.WARNING, "Unable to compute perceptual hash", ex.getCause());
+            }
+        }
+    }
+
+    private static List<String> getLabels(Annotation annotation) {
+        return annotation.getObjects().stream().map(ObjectModel::getName).distinct().sorted().collect(Collectors.toList());
+    }
+
+    private void createTFRecord(Shard[] shards, String split, Map<String, Integer> labelMap, Path outputPath,
+                                RecordManifest previous, RecordManifest manifest, ExecutorService workers) {
+        // Shards whose examples are unchanged and whose file is intact are reused as they are
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[i];
+            Path path = getShardPath(outputPath, i, shards.length);
+            long size = previous.getRecordSize(path.getFileName().toString());
+            if (size < 0 || path.toFile().length() != size || (shard.dirty && compression != TFRecordCompression.NONE)) {
+                // The previous records cannot be trusted, or cannot be copied into a compressed file, so encode them again
+                shard.changed.addAll(shard.kept);
+                shard.kept.clear();
+                shard.dirty = true;
+            }
+            else if (!shard.dirty) {
+                shard.kept.forEach(manifest::putEntry);
+                manifest.setRecordSize(path.getFileName().toString(), size);
+            }
+        }
+
+        // Changed examples are built by a worker pool and handed to the writer thread of their shard, which copies the
+        // unchanged records of the shard from its previous file, and compresses the shard in parallel with the others.
+        // Encoded examples are bounded in total rather than per shard, so that many shards never hold many examples
+        Semaphore encodedPermits = new Semaphore(Runtime.getRuntime().availableProcessors() * ENCODED_PER_WORKER);
+        List<ShardWriter> writers = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i].dirty) {
+                ShardWriter writer = new ShardWriter(getShardPath(outputPath, i, shards.length), compression, manifest, encodedPermits);
+                writer.start();
+                writers.add(writer);
+                shards[i].writer = writer;
+            }
+        }
+        try {
+            AtomicInteger encoded = new AtomicInteger();
+            int copied = 0;
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < shards.length; i++) {
+                Shard shard = shards[i];
+                int index = i;
+                for (RecordManifest.Entry source : shard.changed) {
+                    futures.add(workers.submit(() -> {
+                        RecordManifest.Entry entry = new RecordManifest.Entry(split, index);
+                        entry.perceptualHash = source.perceptualHash;
+                        // Released by the shard writer once the example is written
+                        encodedPermits.acquire();
+                        Example example;
+                        try {
+                            example = createExample(source, labelMap, entry);
+                        }
+                        catch (Exception ex) {
+                            encodedPermits.release();
+                            throw ex;
+                        }
+                        if (example == null) {
+                            encodedPermits.release();
+                            entry.shard = -1;
+                            manifest.putEntry(entry);
+                        }
+                        else {
+                            shard.writer.queue.put(new Record(entry, example));
+                            encoded.incrementAndGet();
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (Shard shard : shards) {
+                if (shard.dirty) {
+                    for (RecordManifest.Entry entry : shard.kept) {
+                        shard.writer.queue.put(new Record(entry, null));
+                        copied++;
+                    }
+                }
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                }
+                catch (ExecutionException ex) {
+                    LOG.log(Level.WARNING, "Unable to create example", ex.getCause());
+                }
+            }
+            for (ShardWriter writer : writers) {
+                writer.queue.put(END_OF_SHARD);
+            }
+            for (ShardWriter writer : writers) {
+                writer.join();
+            }
+            LOG.info(String.format("Rewrote %d of %d shard(s) of %s, %d examples encoded and %d copied",
+                    writers.size(), shards.length, outputPath, encoded.get(), copied));
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            writers.forEach(Thread::interrupt);
+        }
+    }
+
+    private boolean isUnchanged(RecordManifest.Entry entry, File annotationFile) {
+        try {
+            if (annotationFile.lastModified() != entry.annotationModified) {
+                if (!sha256Hex(annotationFile).equals(entry.annotationSha256)) {
+                    return false;
+                }
+                entry.annotationModified = annotationFile.lastModified();
+            }
+            File imageFile = entry.image == null ? null : Paths.get(imagePath.toString(), entry.image).toFile();
+            boolean imageExists = imageFile != null && imageFile.exists();
+            if (entry.shard < 0 && !entry.duplicate) {
+                // Skipped examples only need another look once their image appears or disappears
+                return imageExists == (entry.imageModified != 0);
+            }
+            if (!imageExists) {
+                return false;
+            }
+            if (imageFile.lastModified() != entry.imageModified) {
+                if (!sha256Hex(imageFile).equals(entry.imageSha256)) {
+                    return false;
+                }
+                entry.imageModified = imageFile.lastModified();
+            }
+            return true;
+        }
+        catch (IOException ex) {
+            LOG.log(Level.WARNING, "Unable to check " + annotationFile, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Reads a file into an array of exactly its size, updating <code>md</code> if given as it is read, so that the bytes
+     * are neither copied nor scanned again
+     */
+    private static byte[] readFully(File file, MessageDigest md) throws IOException {
+        if (md != null) {
+            md.reset();
+        }
+        try (InputStream is = new FileInputStream(file)) {
+            long size = file.length();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException(file + " is too large");
+            }
+            byte[] bytes = new byte[(int)size];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = is.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    throw new EOFException(file + " was truncated while reading");
+                }
+                if (md != null) {
+                    md.update(bytes, offset, read);
+                }
+                offset += read;
+            }
+            return bytes;
+        }
+    }
+
+    private String sha256Hex(File file) throws IOException {
+        MessageDigest md = digest.get();
+        md.reset();
+        try (InputStream is = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                md.update(buffer, 0, read);
+            }
+        }
+        return Hex.encodeHexString(md.digest());
+    }
+
+    private void removeRecords() {
+        File[] records = dataPath.toFile().listFiles((dir, name) -> name.startsWith("train.record") || name.startsWith("eval.record"));
+        for (File file : records == null ? new File[0] : records) {
+            file.delete();
+        }
+    }
+
+    private static Shard[] createShards(int count) {
+        Shard[] shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard();
+        }
+        return shards;
+    }
+
+    private static Shard getSmallest(Shard[] shards) {
+        return Arrays.stream(shards).min(Comparator.comparingInt(shard -> shard.kept.size() + shard.changed.size())).get();
+    }
+
+    /**
+     * Encodes the annotation of <code>source</code>, which has been probed or checked unchanged in this build, so its
+     * hashes are reused and an annotation parsed by the probe is not parsed again.
+     *
+     * @return the example of an annotation, or null if it should be skipped
+     */
+    private Example createExample(RecordManifest.Entry source, Map<String, Integer> labelMap, RecordManifest.Entry entry)
+            throws Exception {
+        File file = annotationPath.resolve(source.annotation).toFile();
+        entry.annotation = source.annotation;
+        entry.annotationModified = source.annotationModified;
+        entry.annotationSha256 = source.annotationSha256;
+        Annotation annotation = source.parsed;
+        source.parsed = null;
+        if (annotation == null) {
+            Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+            annotation = (Annotation) unmarshaller.unmarshal(file);
+        }
+        entry.labels.addAll(getLabels(annotation));
+        File imageFile = Paths.get(imagePath.toString(), annotation.getFilename()).toFile();
+        entry.image = annotation.getFilename();
+        entry.imageModified = imageFile.exists() ? imageFile.lastModified() : 0;
+        if (!imageFile.exists()) {
+            LOG.warning("Image "+imageFile+ " does not exist");
+            return null;
+        }
+        if (annotation.getObjects().size() <= 0) {
+            LOG.warning("No objects in " + file);
+            return null;
+        }
+        // The image is only hashed again if it has changed since it was hashed in this build
+        boolean hashed = source.imageSha256 != null && entry.image.equals(source.image)
+                && entry.imageModified == source.imageModified;
+        MessageDigest md = digest.get();
+        byte[] imageBytes = readFully(imageFile, hashed ? null : md);
+        String key = hashed ? source.imageSha256 : Hex.encodeHexString(md.digest());
+        entry.imageSha256 = key;
+
+        int width = annotation.getSize().getWidth();
+        int height = annotation.getSize().getHeight();
+        if (width <= 0.0 || height <= 0.0 ) {
+            LOG.warning("Error in annotation size " + file);
+            return null;
+        }
+        ImageNormalizer.EncodedImage image = normalizer.normalize(imageBytes, width, height);
+        if (image.getBytes() != imageBytes) {
+            key = Hex.encodeHexString(md.digest(image.getBytes()));
+        }
+        FloatList.Builder xmin = FloatList.newBuilder();
+        FloatList.Builder xmax = FloatList.newBuilder();
+        FloatList.Builder ymin = FloatList.newBuilder();
+        FloatList.Builder ymax = FloatList.newBuilder();
+        BytesList.Builder text = BytesList.newBuilder();
+        Int64List.Builder label = Int64List.newBuilder();
+        Int64List.Builder difficult = Int64List.newBuilder();
+        Int64List.Builder truncated = Int64List.newBuilder();
+        BytesList.Builder poses = BytesList.newBuilder();
+        annotation.getObjects().forEach(obj -> {
+            Integer id = labelMap.get(obj.getName());
+            if (id == null) {
+                LOG.warning("Could not find " + obj.getName() + " in " + file + " in label map");
+                return;
+            }
+            xmin.addValue((float)(obj.getBoundBox().getXMin() / width));
+            ymin.addValue((float)(obj.getBoundBox().getYMin() / height));
+            xmax.addValue((float)(obj.getBoundBox().getXMax() / width));
+            ymax.addValue((float)(obj.getBoundBox().getYMax() / height));
+            text.addValue(ByteString.copyFromUtf8(obj.getName()));
+            label.addValue(id);
+            difficult.addValue(0);
+            truncated.addValue(0);
+            poses.addValue(ByteString.copyFromUtf8("Unspecified"));
+        });
+
+        Features.Builder builder = Features.newBuilder();
+        builder.putFeature("image/height", getInt64ListFeature(image.getHeight()));
+        builder.putFeature("image/width", getInt64ListFeature(image.getWidth()));
+        builder.putFeature("image/filename", getBytesListFeature(annotation.getFilename()));
+        builder.putFeature("image/source_id", getBytesListFeature(annotation.getFilename()));
+        builder.putFeature("image/key/sha256", getBytesListFeature(key));
+        builder.putFeature("image/encoded", getBytesListFeature(image.getBytes()));
+        builder.putFeature("image/format", getBytesListFeature(image.getFormat()));
+        builder.putFeature("image/object/bbox/xmin", Feature.newBuilder().setFloatList(xmin).build());
+        builder.putFeature("image/object/bbox/xmax", Feature.newBuilder().setFloatList(xmax).build());
+        builder.putFeature("image/object/bbox/ymin", Feature.newBuilder().setFloatList(ymin).build());
+        builder.putFeature("image/object/bbox/ymax", Feature.newBuilder().setFloatList(ymax).build());
+        builder.putFeature("image/object/class/text", Feature.newBuilder().setBytesList(text).build());
+        builder.putFeature("image/object/class/label", Feature.newBuilder().setInt64List(label).build());
+        builder.putFeature("image/object/difficult", Feature.newBuilder().setInt64List(difficult).build());
+        builder.putFeature("image/object/truncated", Feature.newBuilder().setInt64List(truncated).build());
+        builder.putFeature("image/object/view", Feature.newBuilder().setBytesList(poses).build());
+
+        return Example.newBuilder().setFeatures(builder.build()).build();
+    }
+
+    /**
+     * @return <code>outputPath</code> itself for a single shard, or <code>train.record-00000-of-00016</code> style names,
+     * which the object detection input reader expands from <code>train.record-?????-of-00016</code>
+     */
+    public static Path getShardPath(Path outputPath, int shard, int shards) {
+        if (shards <= 1) {
+            return outputPath;
+        }
+        return outputPath.resolveSibling(String.format("%s-%05d-of-%05d", outputPath.getFileName(), shard, shards));
+    }
+
+    public static String getShardPattern(String outputPath, int shards) {
+        return shards <= 1 ? outputPath : String.format("%s-?????-of-%05d", outputPath, shards);
     }
 
     private Feature getInt64ListFeature(int value) {
@@ -183,6 +616,127 @@ public class TFRecordCreator
     }
 
     private Feature getBytesListFeature(byte[] value) {
-        return Feature.newBuilder().setBytesList(BytesList.newBuilder().addValue(ByteString.copyFrom(value))).build();
+        // The array is wrapped rather than copied, as it is never modified once read
+        return Feature.newBuilder().setBytesList(BytesList.newBuilder().addValue(UnsafeByteOperations.unsafeWrap(value))).build();
+    }
+
+    private static class Shard
+    {
+        // Unchanged examples with a record in the previous file, and examples to encode
+        private final List<RecordManifest.Entry> kept = new ArrayList<>();
+        private final List<RecordManifest.Entry> changed = new ArrayList<>();
+        private boolean dirty;
+        private ShardWriter writer;
+    }
+
+    private static class Record
+    {
+        private final RecordManifest.Entry entry;
+        // Null to copy the previous record of the entry
+        private final Example example;
+
+        private Record(RecordManifest.Entry entry, Example example) {
+            this.entry = entry;
+            this.example = example;
+        }
+    }
+
+    private static class ShardWriter extends Thread
+    {
+        private final Path path;
+        private final TFRecordCompression compression;
+        private final RecordManifest manifest;
+        // Unbounded, as the encoded examples in it are bounded by the permits
+        private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+        private final Semaphore encodedPermits;
+
+        private ShardWriter(Path path, TFRecordCompression compression, RecordManifest manifest, Semaphore encodedPermits) {
+            super("TFRecord Writer " + path.getFileName());
+            this.path = path;
+            this.compression = compression;
+            this.manifest = manifest;
+            this.encodedPermits = encodedPermits;
+        }
+
+        @Override
+        public void run() {
+            // Write to a temporary file first, as unchanged records are copied from the previous file
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            List<RecordManifest.Entry> written = new ArrayList<>();
+            IOException error = null;
+            TFRecordWriter writer = null;
+            FileChannel source = null;
+            try {
+                writer = new TFRecordWriter(FileChannel.open(temp, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), TFRecordWriter.DEFAULT_BUFFER_SIZE, compression);
+                if (path.toFile().exists()) {
+                    source = FileChannel.open(path, StandardOpenOption.READ);
+                }
+            }
+            catch (IOException ex) {
+                error = ex;
+            }
+            try {
+                Record record;
+                while ((record = queue.take()) != END_OF_SHARD) {
+                    // Keep draining the queue after a failure, so that workers are not blocked on the permits
+                    if (error == null) {
+                        try {
+                            RecordManifest.Entry entry = record.entry.moveTo(writer.getPosition());
+                            if (record.example == null) {
+                                if (source == null) {
+                                    throw new IOException("Previous records are missing");
+                                }
+                                writer.transferFrom(source, record.entry.offset, record.entry.length);
+                            }
+                            else {
+                                writer.write(record.example);
+                                entry.length = writer.getPosition() - entry.offset;
+                            }
+                            written.add(entry);
+                        }
+                        catch (IOException ex) {
+                            error = ex;
+                        }
+                    }
+                    if (record.example != null) {
+                        encodedPermits.release();
+                    }
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                try {
+                    if (writer != null) {
+                        writer.close();
+                    }
+                    if (source != null) {
+                        source.close();
+                    }
+                }
+                catch (IOException ex) {
+                    error = error == null ? ex : error;
+                }
+            }
+            try {
+                if (error == null && !isInterrupted()) {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    written.forEach(manifest::putEntry);
+                    manifest.setRecordSize(path.getFileName().toString(), path.toFile().length());
+                    return;
+                }
+            }
+            catch (IOException ex) {
+                error = ex;
+            }
+            // Without the shard, its examples are encoded again on the next build
+            if (error != null) {
+                LOG.log(Level.SEVERE, "Unable to write " + path, error);
+            }
+            temp.toFile().delete();
+            path.toFile().delete();
+        }
     }
 }
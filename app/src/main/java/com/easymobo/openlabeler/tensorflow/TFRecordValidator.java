@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.easymobo.openlabeler.tensorflow;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.tensorflow.hadoop.util.MappedTFRecordReader;
+import org.tensorflow.hadoop.util.TFRecordCompression;
+import org.tensorflow.hadoop.util.TFRecordReader;
+import org.tensorflow.proto.example.Example;
+import org.tensorflow.proto.example.Feature;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks the train and eval records in a data directory and collects statistics of their examples. Every record file is
+ * memory mapped with its record index, and ranges of records are checked in parallel: the CRCs of each record are
+ * verified, the example is parsed, and its image size and boxes are counted. Compressed record files cannot be split,
+ * so each of them is read as a stream by a single task.
+ */
+public class TFRecordValidator
+{
+    private static final Logger LOG = Logger.getLogger(MethodHandles.lookup().lookupClass().getCanonicalName());
+
+    // Records checked by each task
+    private static final int BATCH_SIZE = 256;
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+    // Problems kept in a report, the others are only counted
+    private static final int MAX_ERRORS = 20;
+    // Upper bounds of the box size histogram, as the square root of the box area relative to the image area
+    private static final double[] BOX_SIZE_BOUNDS = {0.05, 0.1, 0.2, 0.4, 1};
+    // Upper bounds of the image size histogram, as the longer side in pixels
+    private static final long[] IMAGE_SIZE_BOUNDS = {320, 640, 1024, 2048, Long.MAX_VALUE};
+
+    /**
+     * @return the record files in <code>dataDir</code>, sorted by name
+     */
+    public static List<Path> findRecordFiles(String dataDir) {
+        File[] files = new File(dataDir).listFiles((dir, name) -> (name.startsWith("train.record") || name.startsWith("eval.record"))
+                && !name.endsWith(MappedTFRecordReader.INDEX_SUFFIX) && !name.endsWith(".tmp"));
+        List<Path> paths = new ArrayList<>();
+        for (File file : files == null ? new File[0] : files) {
+            paths.add(file.toPath());
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    public static Report validate(List<Path> files) {
+        ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "TFRecord Validator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Report report = new Report();
+        report.files = files.size();
+        Map<Path, Future<MappedTFRecordReader>> readers = new LinkedHashMap<>();
+        List<Future<Report>> batches = new ArrayList<>();
+        try {
+            // Record indexes are built in parallel as well, for files opened for the first time
+            for (Path file : files) {
+                readers.put(file, workers.submit(() -> TFRecordCompression.detect(file) == TFRecordCompression.NONE
+                        ? new MappedTFRecordReader(file, true) : null));
+            }
+            for (var open : readers.entrySet()) {
+                MappedTFRecordReader reader;
+                try {
+                    reader = open.getValue().get();
+                }
+                catch (ExecutionException ex) {
+                    report.unreadableFiles++;
+                    report.addError(open.getKey().getFileName() + ": " + ex.getCause().getMessage());
+                    continue;
+                }
+                if (reader == null) {
+                    batches.add(workers.submit(() -> scanCompressed(open.getKey())));
+                    continue;
+                }
+                for (int from = 0; from < reader.size(); from += BATCH_SIZE) {
+                    int start = from, end = Math.min(reader.size(), from + BATCH_SIZE);
+                    batches.add(workers.submit(() -> scan(open.getKey(), reader, start, end)));
+                }
+            }
+            for (Future<Report> batch : batches) {
+                report.merge(batch.get());
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException ex) {
+            LOG.log(Level.SEVERE, "Unable to validate records", ex.getCause());
+        }
+        finally {
+            workers.shutdownNow();
+            for (Future<MappedTFRecordReader> open : readers.values()) {
+                try {
+                    if (open.isDone() && !open.isCancelled() && open.get() != null) {
+                        open.get().close();
+                    }
+                }
+                catch (Exception ex) {
+                    // Already counted as unreadable
+                }
+            }
+        }
+        LOG.info(report.toString());
+        return report;
+    }
+
+    private static Report scan(Path file, MappedTFRecordReader reader, int from, int to) {
+        Report report = new Report();
+        for (int k = from; k < to; k++) {
+            String record = String.format("%s record %d", file.getFileName(), k);
+            ByteBuffer data;
+            try {
+                data = reader.read(k);
+            }
+            catch (IOException ex) {
+                report.corruptRecords++;
+                report.addError(record + ": " + ex.getMessage());
+                continue;
+            }
+            try {
+                report.add(record, Example.parseFrom(data).getFeatures().getFeatureMap());
+            }
+            catch (InvalidProtocolBufferException ex) {
+                report.corruptRecords++;
+                report.addError(record + ": unable to parse example, " + ex.getMessage());
+            }
+        }
+        return report;
+    }
+
+    private static Report scanCompressed(Path file) {
+        Report report = new Report();
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(TFRecordCompression.detect(file)
+                .decompress(Files.newInputStream(file), STREAM_BUFFER_SIZE), STREAM_BUFFER_SIZE))) {
+            TFRecordReader reader = new TFRecordReader(dis, true);
+            for (int k = 0; ; k++) {
+                String record = String.format("%s record %d", file.getFileName(), k);
+                byte[] data;
+                try {
+                    data = reader.read();
+                }
+                catch (IOException ex) {
+                    // The rest of a stream cannot be read past a corrupt record
+                    report.corruptRecords++;
+                    report.addError(record + ": " + ex.getMessage());
+                    break;
+                }
+                if (data == null) {
+                    break;
+                }
+                try {
+                    report.add(record, Example.parseFrom(data).getFeatures().getFeatureMap());
+                }
+                catch (InvalidProtocolBufferException ex) {
+                    report.corruptRecords++;
+                    report.addError(record + ": unable to parse example, " + ex.getMessage());
+                }
+            }
+        }
+        catch (IOException ex) {
+            report.unreadableFiles++;
+            report.addError(file.getFileName() + ": " + ex.getMessage());
+        }
+        return report;
+    }
+
+    private static int getBucket(double value, double[] bounds) {
+        int i = 0;
+        while (i < bounds.length - 1 && value > bounds[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int getBucket(long value, long[] bounds) {
+        int i = 0;
+        while (i < bounds.length - 1 && value > bounds[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    public static class Report
+    {
+        private int files, unreadableFiles;
+        private long records, corruptRecords, boxes, invalidBoxes;
+        private final Map<String, Long> boxesPerLabel = new TreeMap<>();
+        private final long[] boxSizes = new long[BOX_SIZE_BOUNDS.length];
+        private final long[] imageSizes = new long[IMAGE_SIZE_BOUNDS.length];
+        private final List<String> errors = new ArrayList<>();
+
+        private void add(String record, Map<String, Feature> features) {
+            records++;
+            long width = getInt64(features, "image/width"), height = getInt64(features, "image/height");
+            if (width <= 0 || height <= 0) {
+                addError(record + ": invalid image size " + width + "x" + height);
+            }
+            else {
+                imageSizes[getBucket(Math.max(width, height), IMAGE_SIZE_BOUNDS)]++;
+            }
+
+            List<Float> xmin = getFloats(features, "image/object/bbox/xmin"), xmax = getFloats(features, "image/object/bbox/xmax");
+            List<Float> ymin = getFloats(features, "image/object/bbox/ymin"), ymax = getFloats(features, "image/object/bbox/ymax");
+            List<ByteString> text = features.containsKey("image/object/class/text")
+                    ? features.get("image/object/class/text").getBytesList().getValueList() : Collections.emptyList();
+            int count = Math.max(Math.max(xmin.size(), xmax.size()), Math.max(ymin.size(), ymax.size()));
+            for (int i = 0; i < count; i++) {
+                String label = i < text.size() ? text.get(i).toStringUtf8() : "";
+                boxes++;
+                boxesPerLabel.merge(label, 1L, Long::sum);
+                if (i >= xmin.size() || i >= xmax.size() || i >= ymin.size() || i >= ymax.size()) {
+                    invalidBoxes++;
+                    addError(String.format("%s: box %d (%s) has missing coordinates", record, i, label));
+                    continue;
+                }
+                float x0 = xmin.get(i), x1 = xmax.get(i), y0 = ymin.get(i), y1 = ymax.get(i);
+                // Negated, so that NaN coordinates are invalid as well
+                if (!(0 <= x0 && x0 < x1 && x1 <= 1 && 0 <= y0 && y0 < y1 && y1 <= 1)) {
+                    invalidBoxes++;
+                    addError(String.format("%s: box %d (%s) is invalid, x %.3f-%.3f, y %.3f-%.3f", record, i, label, x0, x1, y0, y1));
+                    continue;
+                }
+                boxSizes[getBucket(Math.sqrt((x1 - x0) * (y1 - y0)), BOX_SIZE_BOUNDS)]++;
+            }
+        }
+
+        private void merge(Report other) {
+            unreadableFiles += other.unreadableFiles;
+            records += other.records;
+            corruptRecords += other.corruptRecords;
+            boxes += other.boxes;
+            invalidBoxes += other.invalidBoxes;
+            other.boxesPerLabel.forEach((label, count) -> boxesPerLabel.merge(label, count, Long::sum));
+            for (int i = 0; i < boxSizes.length; i++) {
+                boxSizes[i] += other.boxSizes[i];
+            }
+            for (int i = 0; i < imageSizes.length; i++) {
+                imageSizes[i] += other.imageSizes[i];
+            }
+            other.errors.forEach(this::addError);
+        }
+
+        private void addError(String error) {
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(error);
+            }
+        }
+
+        private static long getInt64(Map<String, Feature> features, String key) {
+            Feature feature = features.get(key);
+            return feature == null || feature.getInt64List().getValueCount() == 0 ? -1 : feature.getInt64List().getValue(0);
+        }
+
+        private static List<Float> getFloats(Map<String, Feature> features, String key) {
+            Feature feature = features.get(key);
+            return feature == null ? Collections.emptyList() : feature.getFloatList().getValueList();
+        }
+
+        public boolean isValid() {
+            return unreadableFiles == 0 && corruptRecords == 0 && invalidBoxes == 0;
+        }
+
+        public int getFiles() {
+            return files;
+        }
+
+        public int getUnreadableFiles() {
+            return unreadableFiles;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getCorruptRecords() {
+            return corruptRecords;
+        }
+
+        public long getBoxes() {
+            return boxes;
+        }
+
+        public long getInvalidBoxes() {
+            return invalidBoxes;
+        }
+
+        public Map<String, Long> getBoxesPerLabel() {
+            return Collections.unmodifiableMap(boxesPerLabel);
+        }
+
+        /**
+         * @return the first problems found, at most {@value #MAX_ERRORS}
+         */
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%d record(s) in %d file(s), %d unreadable file(s), %d corrupt record(s)%n",
+                    records, files, unreadableFiles, corruptRecords));
+            sb.append(String.format("%d box(es), %d invalid%n", boxes, invalidBoxes));
+            boxesPerLabel.forEach((label, count) -> sb.append(String.format("  %s: %d%n", label.isEmpty() ? "<no label>" : label, count)));
+            sb.append(String.format("Box size (square root of area relative to image)%n"));
+            for (int i = 0; i < boxSizes.length; i++) {
+                sb.append(String.format("  <= %.0f%%: %d%n", BOX_SIZE_BOUNDS[i] * 100, boxSizes[i]));
+            }
+            sb.append(String.format("Image size (longer side)%n"));
+            for (int i = 0; i < imageSizes.length; i++) {
+                sb.append(i < imageSizes.length - 1
+                        ? String.format("  <= %d: %d%n", IMAGE_SIZE_BOUNDS[i], imageSizes[i])
+                        : String.format("  > %d: %d%n", IMAGE_SIZE_BOUNDS[i - 1], imageSizes[i]));
+            }
+            errors.forEach(error -> sb.append(error).append(System.lineSeparator()));
+            return sb.toString().trim();
+        }
+    }
+}
@@ -38,6 +38,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.tensorflow.hadoop.util.TFRecordCompression;
 
 import java.io.File;
 import java.io.IOException;
@@ -125,10 +126,31 @@ public class TFTrainer implements AutoCloseable
     }
 
     public static boolean canTrain(String dataDir, String baseModeDir) {
-        return getTrainRecordPath(dataDir).toFile().exists()
-                && getEvalRecordPath(dataDir).toFile().exists()
+        int shards = Settings.getTFRecordShards();
+        Path trainRecord = TFRecordCreator.getShardPath(getTrainRecordPath(dataDir), 0, shards);
+        return trainRecord.toFile().exists()
+                && TFRecordCreator.getShardPath(getEvalRecordPath(dataDir), 0, shards).toFile().exists()
                 && getLabelMapPath(dataDir).toFile().exists()
-                && getModelConfigPath(baseModeDir).toFile().exists();
+                && getModelConfigPath(baseModeDir).toFile().exists()
+                && isReadableByTrainer(Settings.getTFRecordCompression())
+                && isReadableByTrainer(trainRecord);
+    }
+
+    /**
+     * The input reader of the Object Detection API has no compression type, so it only reads uncompressed records
+     */
+    public static boolean isReadableByTrainer(TFRecordCompression compression) {
+        return compression == TFRecordCompression.NONE;
+    }
+
+    private static boolean isReadableByTrainer(Path record) {
+        try {
+            return isReadableByTrainer(TFRecordCompression.detect(record));
+        }
+        catch (IOException ex) {
+            LOG.log(Level.WARNING, "Unable to read " + record, ex);
+            return false;
+        }
     }
 
     private static boolean isRunning(Container container) {
@@ -203,7 +225,7 @@ public class TFTrainer implements AutoCloseable
 
     public static void createTrainData(List<LabelMapItem> items) {
         try {
-            FileUtils.deleteDirectory(getDataPath().toFile());
+            // Records are rebuilt incrementally from the manifest in the data directory
             String dataDir = Settings.getTFDataDir();
             if (!getDataPath().toFile().exists() && !getDataPath().toFile().mkdirs()) {
                 throw new Exception("Unable to create " + dataDir);
@@ -294,6 +316,10 @@ public class TFTrainer implements AutoCloseable
         try {
             String baseModelDir = Settings.getTFBaseModelDir();
             String containerName = Settings.getContainerName();
+            if (start && !isReadableByTrainer(Settings.getTFRecordCompression())) {
+                LOG.severe("Training needs uncompressed records, record compression is " + Settings.getTFRecordCompression());
+                return;
+            }
             if (start) {
                 Container trainer = null;
                 List<Container> containers = dockerClient.listContainersCmd().withShowAll(true).exec();
@@ -479,11 +505,11 @@ public class TFTrainer implements AutoCloseable
     }
 
     public static String getDockerTrainRecordPath() {
-        return "/root/data/train.record";
+        return TFRecordCreator.getShardPattern("/root/data/train.record", Settings.getTFRecordShards());
     }
 
     public static String getDockerEvalRecordPath() {
-        return "/root/data/eval.record";
+        return TFRecordCreator.getShardPattern("/root/data/eval.record", Settings.getTFRecordShards());
     }
 
     public static String getDockerFineTuneCkptPath() {
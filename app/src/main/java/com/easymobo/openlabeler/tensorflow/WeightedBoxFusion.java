@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.easymobo.openlabeler.tensorflow;
+
+/**
+ * Weighted box fusion of the boxes predicted by several models for the same image. Unlike non-maximum suppression,
+ * which keeps the best box of a cluster, overlapping boxes of the same class are averaged with their scores as weights,
+ * and the fused score is lowered when fewer models agree on the box.
+ * See <a href="https://arxiv.org/abs/1910.13302">Weighted boxes fusion</a>.
+ */
+public final class WeightedBoxFusion
+{
+    private WeightedBoxFusion() {}
+
+    /**
+     * Fuses boxes held in primitive arrays, see {@link NonMaxSuppression#apply} for their layout. The fused boxes are
+     * written back into the same arrays.
+     *
+     * @param numModels    number of models whose boxes are fused
+     * @param iouThreshold a box joins a cluster when it overlaps the fused box of the same class by more than this
+     * @return the number of fused boxes
+     */
+    public static int fuse(float[] boxes, float[] scores, int[] classes, int count, int numModels, float iouThreshold) {
+        int[] order = NonMaxSuppression.sortByScore(scores, count);
+        // Score weighted coordinate sums, score sums and box counts of each cluster
+        float[] sums = new float[count * 4];
+        float[] fused = new float[count * 4];
+        float[] weights = new float[count];
+        int[] sizes = new int[count];
+        int[] clusterClasses = new int[count];
+        int numClusters = 0;
+        for (int i : order) {
+            int cluster = -1;
+            float bestIou = iouThreshold;
+            for (int c = 0; c < numClusters; c++) {
+                if (clusterClasses[c] != classes[i]) {
+                    continue;
+                }
+                float iou = NonMaxSuppression.iou(fused, c, boxes, i);
+                if (iou > bestIou) {
+                    bestIou = iou;
+                    cluster = c;
+                }
+            }
+            if (cluster < 0) {
+                cluster = numClusters++;
+                clusterClasses[cluster] = classes[i];
+            }
+            float score = scores[i];
+            weights[cluster] += score;
+            sizes[cluster]++;
+            for (int k = 0; k < 4; k++) {
+                sums[cluster * 4 + k] += boxes[i * 4 + k] * score;
+                fused[cluster * 4 + k] = weights[cluster] > 0 ? sums[cluster * 4 + k] / weights[cluster] : boxes[i * 4 + k];
+            }
+        }
+        for (int c = 0; c < numClusters; c++) {
+            System.arraycopy(fused, c * 4, boxes, c * 4, 4);
+            scores[c] = weights[c] / sizes[c] * Math.min(sizes[c], numModels) / numModels;
+            classes[c] = clusterClasses[c];
+        }
+        return numClusters;
+    }
+}
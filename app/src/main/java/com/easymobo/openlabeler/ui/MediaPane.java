@@ -35,7 +35,9 @@ import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.nio.file.*;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
@@ -106,6 +108,18 @@ public class MediaPane extends BorderPane implements AutoCloseable
         return tvMedia.getSelectionModel();
     }
 
+    /**
+     * @return up to <code>count</code> media files listed after the selected one
+     */
+    public List<File> getNextMediaFiles(int count) {
+        List<MediaFile> items = tvMedia.getItems();
+        int from = tvMedia.getSelectionModel().getSelectedIndex() + 1;
+        if (from <= 0 || from >= items.size()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(items.subList(from, Math.min(from + count, items.size())));
+    }
+
     public void openFileOrDir(File file) {
         File[] files = new File[] { file };
         if (file.isDirectory()) {
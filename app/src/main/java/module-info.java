@@ -16,6 +16,7 @@ module com.easymobo.openlabeler.app {
     requires opencv;
     requires com.fasterxml.jackson.databind;
     requires java.prefs;
+    requires jdk.jfr;
     requires reactfx;
     requires org.fxmisc.undo;
     requires proto;
@@ -19,22 +19,65 @@ package org.tensorflow.hadoop.util;
 
 import org.apache.hadoop.util.PureJavaCrc32C;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
 import java.util.zip.Checksum;
 
+/**
+ * CRC32C as used by TFRecord files. The checksum is computed by <code>java.util.zip.CRC32C</code>, which the JVM
+ * compiles to the SSE4.2 or ARMv8 CRC instructions where available, unless the system property
+ * <code>org.tensorflow.hadoop.util.crc32c</code> is set to <code>pure</code> or the JDK implementation disagrees with
+ * {@link PureJavaCrc32C} on a known value, in which case the table-driven {@link PureJavaCrc32C} is used.
+ */
 public class Crc32C implements Checksum {
+  public static final String IMPLEMENTATION_PROPERTY = "org.tensorflow.hadoop.util.crc32c";
+
+  private static final Logger LOG = Logger.getLogger(Crc32C.class.getName());
   private static final int MASK_DELTA = 0xa282ead8;
-  private PureJavaCrc32C crc32C;
+  // CRC32C of "123456789"
+  private static final long CHECK_VALUE = 0xe3069283L;
+  private static final Supplier<Checksum> IMPLEMENTATION = selectImplementation();
+  private static final ThreadLocal<Crc32C> SHARED = ThreadLocal.withInitial(Crc32C::new);
+
+  private final Checksum crc32C;
 
   public static int maskedCrc32c(byte[] data) {
     return maskedCrc32c(data, 0, data.length);
   }
 
   public static int maskedCrc32c(byte[] data, int offset, int length) {
-    Crc32C crc32c = new Crc32C();
+    Crc32C crc32c = SHARED.get();
+    crc32c.reset();
     crc32c.update(data, offset, length);
     return crc32c.getMaskedValue();
   }
 
+  /**
+   * @return the name of the class computing checksums
+   */
+  public static String getImplementation() {
+    return IMPLEMENTATION.get().getClass().getName();
+  }
+
+  private static Supplier<Checksum> selectImplementation() {
+    if (!"pure".equalsIgnoreCase(System.getProperty(IMPLEMENTATION_PROPERTY))) {
+      try {
+        Checksum jdk = new CRC32C();
+        jdk.update("123456789".getBytes(StandardCharsets.US_ASCII));
+        if (jdk.getValue() == CHECK_VALUE) {
+          return CRC32C::new;
+        }
+        LOG.warning("java.util.zip.CRC32C returned an unexpected checksum, using PureJavaCrc32C");
+      } catch (LinkageError err) {
+        LOG.warning("java.util.zip.CRC32C is unavailable, using PureJavaCrc32C");
+      }
+    }
+    return PureJavaCrc32C::new;
+  }
+
   /**
    * Return a masked representation of crc.
    * <p>
@@ -61,7 +104,7 @@ public class Crc32C implements Checksum {
   }
 
   public Crc32C() {
-    crc32C = new PureJavaCrc32C();
+    crc32C = IMPLEMENTATION.get();
   }
 
   public int getMaskedValue() {
@@ -80,6 +123,10 @@ public class Crc32C implements Checksum {
     crc32C.update(b, off, len);
   }
 
+  @Override public void update(ByteBuffer buffer) {
+    crc32C.update(buffer);
+  }
+
   @Override public long getValue() {
     return crc32C.getValue();
   }
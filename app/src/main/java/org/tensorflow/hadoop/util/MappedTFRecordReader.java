@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ==============================================================================
+ */
+
+package org.tensorflow.hadoop.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Random access to the records of a TFRecord file through memory mapping. Records are returned as read-only
+ * {@link ByteBuffer} slices of the mapped file, without copying.
+ * <p>
+ * The offset of every record is kept in a sidecar <code>&lt;file&gt;.idx</code>, which is built on first open and
+ * rebuilt whenever the size or modification time of the file changes. Reading is thread-safe, so a file can be split
+ * across threads by record number.
+ * </p>
+ */
+public class MappedTFRecordReader implements Closeable {
+  public static final String INDEX_SUFFIX = ".idx";
+
+  private static final Logger LOG = Logger.getLogger(MappedTFRecordReader.class.getName());
+  private static final long INDEX_MAGIC = 0x3130584449524654L; // "TFRIDX01"
+  private static final int HEADER_SIZE = 12;
+  private static final int FOOTER_SIZE = 4;
+  // Largest region mapped at once, each region holds whole records
+  private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+  private final FileChannel channel;
+  private final boolean crcCheck;
+  private final long[] offsets;
+  private final int[] segmentOf;
+  private final long[] segmentStarts;
+  private final MappedByteBuffer[] segments;
+  private final ThreadLocal<Crc32C> crc32c = ThreadLocal.withInitial(Crc32C::new);
+
+  public MappedTFRecordReader(Path file, boolean crcCheck) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    this.crcCheck = crcCheck;
+    try {
+      this.offsets = loadOrBuildIndex(file, channel);
+      this.segmentOf = new int[offsets.length];
+      List<Long> starts = new ArrayList<>();
+      List<MappedByteBuffer> mapped = new ArrayList<>();
+      int k = 0;
+      while (k < offsets.length) {
+        long start = offsets[k];
+        long end = recordEnd(k);
+        int first = k;
+        while (k + 1 < offsets.length && recordEnd(k + 1) - start <= MAX_SEGMENT_SIZE) {
+          k++;
+          end = recordEnd(k);
+        }
+        if (end - start > Integer.MAX_VALUE) {
+          throw new IOException("Record " + first + " of " + file + " is too large to map");
+        }
+        for (int i = first; i <= k; i++) {
+          segmentOf[i] = starts.size();
+        }
+        starts.add(start);
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        mapped.add(segment);
+        k++;
+      }
+      this.segmentStarts = starts.stream().mapToLong(Long::longValue).toArray();
+      this.segments = mapped.toArray(new MappedByteBuffer[0]);
+    } catch (IOException | RuntimeException ex) {
+      channel.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * @return the number of records in the file
+   */
+  public int size() {
+    return offsets.length;
+  }
+
+  /**
+   * @return the position of the header of record <code>k</code> in the file
+   */
+  public long getOffset(int k) {
+    return offsets[k];
+  }
+
+  /**
+   * @return a read-only view of the data of record <code>k</code>, positioned at 0
+   */
+  public ByteBuffer read(int k) throws IOException {
+    ByteBuffer segment = segments[segmentOf[k]];
+    int header = (int) (offsets[k] - segmentStarts[segmentOf[k]]);
+    int length = (int) segment.getLong(header);
+    ByteBuffer data = segment.slice(header + HEADER_SIZE, length).asReadOnlyBuffer();
+    if (crcCheck) {
+      Crc32C crc = crc32c.get();
+      crc.reset();
+      crc.update(segment.slice(header, 8));
+      if (crc.getMaskedValue() != segment.getInt(header + 8)) {
+        throw new IOException("Length header crc32 checking failed for record " + k);
+      }
+      crc.reset();
+      crc.update(data.duplicate());
+      if (crc.getMaskedValue() != segment.getInt(header + HEADER_SIZE + length)) {
+        throw new IOException("Data crc32 checking failed for record " + k);
+      }
+    }
+    return data;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private long recordEnd(int k) throws IOException {
+    return k + 1 < offsets.length ? offsets[k + 1] : channel.size();
+  }
+
+  public static Path getIndexPath(Path file) {
+    return file.resolveSibling(file.getFileName() + INDEX_SUFFIX);
+  }
+
+  private static long[] loadOrBuildIndex(Path file, FileChannel channel) throws IOException {
+    long size = channel.size();
+    long modified = Files.getLastModifiedTime(file).toMillis();
+    Path indexPath = getIndexPath(file);
+    if (Files.exists(indexPath)) {
+      try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+        ByteBuffer buffer = index.map(FileChannel.MapMode.READ_ONLY, 0, index.size()).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() >= 32 && buffer.getLong() == INDEX_MAGIC
+            && buffer.getLong() == size && buffer.getLong() == modified) {
+          int count = (int) buffer.getLong();
+          if (buffer.remaining() == count * 8L) {
+            long[] offsets = new long[count];
+            buffer.asLongBuffer().get(offsets);
+            return offsets;
+          }
+        }
+      }
+    }
+
+    long[] offsets = buildIndex(channel);
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate(32 + offsets.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putLong(INDEX_MAGIC).putLong(size).putLong(modified).putLong(offsets.length);
+      buffer.asLongBuffer().put(offsets);
+      // Write to a temporary file first, so that a concurrent open never sees a partial index
+      Path temp = Files.createTempFile(indexPath.toAbsolutePath().getParent(), indexPath.getFileName().toString(), ".tmp");
+      Files.write(temp, buffer.array());
+      Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      LOG.log(Level.WARNING, "Unable to save record index " + indexPath, ex);
+    }
+    return offsets;
+  }
+
+  private static long[] buildIndex(FileChannel channel) throws IOException {
+    long size = channel.size();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    Crc32C crc = new Crc32C();
+    long[] offsets = new long[1024];
+    int count = 0;
+    long position = 0;
+    while (position < size) {
+      header.clear();
+      while (header.hasRemaining()) {
+        if (channel.read(header, position + header.position()) < 0) {
+          throw new IOException("Truncated record header at " + position);
+        }
+      }
+      long length = header.getLong(0);
+      crc.reset();
+      crc.update(header.array(), 0, 8);
+      if (crc.getMaskedValue() != header.getInt(8)) {
+        throw new IOException("Length header crc32 checking failed at " + position);
+      }
+      if (length < 0 || length > Integer.MAX_VALUE || position + HEADER_SIZE + length + FOOTER_SIZE > size) {
+        throw new IOException("Invalid record length " + length + " at " + position);
+      }
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, count * 2);
+      }
+      offsets[count++] = position;
+      position += HEADER_SIZE + length + FOOTER_SIZE;
+    }
+    return Arrays.copyOf(offsets, count);
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ==============================================================================
+ */
+
+package org.tensorflow.hadoop.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of whole TFRecord files, matching the <code>compression_type</code> of TensorFlow's
+ * <code>TFRecordDataset</code>. A compressed file is a single GZIP or ZLIB stream of the framed records.
+ */
+public enum TFRecordCompression {
+  NONE,
+  GZIP,
+  ZLIB;
+
+  public OutputStream compress(OutputStream out, int bufferSize) throws IOException {
+    switch (this) {
+      case GZIP:
+        return new GZIPOutputStream(out, bufferSize);
+      case ZLIB:
+        Deflater deflater = new Deflater();
+        return new DeflaterOutputStream(out, deflater, bufferSize) {
+          @Override
+          public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              deflater.end();
+            }
+          }
+        };
+      default:
+        return out;
+    }
+  }
+
+  public InputStream decompress(InputStream in, int bufferSize) throws IOException {
+    switch (this) {
+      case GZIP:
+        return new GZIPInputStream(in, bufferSize);
+      case ZLIB:
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(in, inflater, bufferSize) {
+          @Override
+          public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              inflater.end();
+            }
+          }
+        };
+      default:
+        return in;
+    }
+  }
+
+  /**
+   * Detects the compression of a record file from its first bytes. A file that starts with a valid record header is
+   * uncompressed, even if the header happens to look like a ZLIB header as well.
+   *
+   * @return the compression of <code>file</code>, NONE if it is empty or unknown
+   */
+  public static TFRecordCompression detect(Path file) throws IOException {
+    ByteBuffer head = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      while (head.hasRemaining()) {
+        if (channel.read(head) < 0) {
+          break;
+        }
+      }
+    }
+    if (head.position() == 12) {
+      Crc32C crc = new Crc32C();
+      crc.update(head.array(), 0, 8);
+      if (crc.getMaskedValue() == head.getInt(8)) {
+        return NONE;
+      }
+    }
+    int b0 = head.position() > 0 ? head.get(0) & 0xff : -1;
+    int b1 = head.position() > 1 ? head.get(1) & 0xff : -1;
+    if (b0 == 0x1f && b1 == 0x8b) {
+      return GZIP;
+    }
+    if (b1 >= 0 && (b0 & 0x0f) == Deflater.DEFLATED && ((b0 << 8) | b1) % 31 == 0) {
+      return ZLIB;
+    }
+    return NONE;
+  }
+}
@@ -17,49 +17,276 @@
 
 package org.tensorflow.hadoop.util;
 
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes records in the TFRecord format:
+ * <pre>
+ * uint64 length
+ * uint32 masked_crc32_of_length
+ * byte   data[length]
+ * uint32 masked_crc32_of_data
+ * </pre>
+ * Records written to a channel are gathered in a reusable direct buffer and only written out when it fills up, on
+ * {@link #flush()} or on {@link #close()}. No objects are allocated per record, and messages larger than the buffer
+ * are serialized through it in chunks rather than into an array of their own.
+ * <p>
+ * Records written to a channel can be compressed as a whole with {@link TFRecordCompression}. Compression runs on the
+ * thread writing the records, so files written by separate threads are compressed in parallel.
+ * </p>
+ */
+public class TFRecordWriter implements Closeable, Flushable {
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+  private static final int HEADER_SIZE = 12;
+  private static final int FOOTER_SIZE = 4;
 
-public class TFRecordWriter {
   private final DataOutput output;
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer;
+  private final OutputStream compressor;
+  private final byte[] header = new byte[HEADER_SIZE];
+  private final Crc32C crc32c = new Crc32C();
+  private long position;
+  // Data of a record serialized in chunks, large fields are passed through without being copied by the coded stream
+  private final OutputStream recordStream = new OutputStream() {
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      crc32c.update(bytes, offset, length);
+      if (channel == null) {
+        output.write(bytes, offset, length);
+      } else {
+        put(bytes, offset, length);
+      }
+    }
+  };
 
   public TFRecordWriter(DataOutput output) {
     this.output = output;
+    this.channel = null;
+    this.buffer = null;
+    this.compressor = null;
+  }
+
+  /**
+   * @param channel channel to write to, closed by {@link #close()}
+   */
+  public TFRecordWriter(WritableByteChannel channel) {
+    this(channel, DEFAULT_BUFFER_SIZE);
+  }
+
+  public TFRecordWriter(WritableByteChannel channel, int bufferSize) {
+    this.output = null;
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, HEADER_SIZE + FOOTER_SIZE))
+        .order(ByteOrder.LITTLE_ENDIAN);
+    this.compressor = null;
+  }
+
+  /**
+   * @param channel     channel to write to, closed by {@link #close()}
+   * @param compression compression of the whole file
+   */
+  public TFRecordWriter(WritableByteChannel channel, int bufferSize, TFRecordCompression compression)
+      throws IOException {
+    this.output = null;
+    this.channel = channel;
+    int capacity = Math.max(bufferSize, HEADER_SIZE + FOOTER_SIZE);
+    if (compression == TFRecordCompression.NONE) {
+      this.buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+      this.compressor = null;
+    } else {
+      // The compressor reads a heap buffer through its array, without another copy
+      this.buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+      this.compressor = compression.compress(Channels.newOutputStream(channel), bufferSize);
+    }
   }
 
   public void write(byte[] record, int offset, int length) throws IOException {
-    /**
-     * TFRecord format:
-     * uint64 length
-     * uint32 masked_crc32_of_length
-     * byte   data[length]
-     * uint32 masked_crc32_of_data
-     */
-    byte[] len = toInt64LE(length);
-    output.write(len);
-    output.write(toInt32LE(Crc32C.maskedCrc32c(len)));
-    output.write(record, offset, length);
-    output.write(toInt32LE(Crc32C.maskedCrc32c(record, offset, length)));
+    fillHeader(length);
+    crc32c.reset();
+    crc32c.update(record, offset, length);
+    int dataCrc = crc32c.getMaskedValue();
+    position += HEADER_SIZE + length + FOOTER_SIZE;
+
+    if (channel == null) {
+      output.write(header);
+      output.write(record, offset, length);
+      output.writeInt(Integer.reverseBytes(dataCrc));
+      return;
+    }
+    ensureRemaining(HEADER_SIZE);
+    buffer.put(header);
+    put(record, offset, length);
+    ensureRemaining(FOOTER_SIZE);
+    buffer.putInt(dataCrc);
   }
 
   public void write(byte[] record) throws IOException {
     write(record, 0, record.length);
   }
 
-  private byte[] toInt64LE(long data) {
-    byte[] buff = new byte[8];
-    ByteBuffer bb = ByteBuffer.wrap(buff);
-    bb.order(ByteOrder.LITTLE_ENDIAN);
-    bb.putLong(data);
-    return buff;
+  /**
+   * Writes a message as a record, serializing it with a {@link CodedOutputStream} straight into the buffer. Messages
+   * larger than the buffer are serialized through it in chunks, so they are never copied into an array of their own.
+   */
+  public void write(MessageLite message) throws IOException {
+    int length = message.getSerializedSize();
+    if (channel == null || length > buffer.capacity() - HEADER_SIZE - FOOTER_SIZE) {
+      writeStreamed(message, length);
+      return;
+    }
+    ensureRemaining(HEADER_SIZE + length + FOOTER_SIZE);
+    fillHeader(length);
+    buffer.put(header);
+
+    int start = buffer.position();
+    CodedOutputStream cos = CodedOutputStream.newInstance(buffer);
+    message.writeTo(cos);
+    cos.flush();
+
+    int limit = buffer.limit();
+    buffer.position(start).limit(start + length);
+    crc32c.reset();
+    crc32c.update(buffer);
+    buffer.limit(limit);
+    buffer.putInt(crc32c.getMaskedValue());
+    position += HEADER_SIZE + length + FOOTER_SIZE;
+  }
+
+  private void writeStreamed(MessageLite message, int length) throws IOException {
+    fillHeader(length);
+    if (channel == null) {
+      output.write(header);
+    } else {
+      ensureRemaining(HEADER_SIZE);
+      buffer.put(header);
+    }
+    crc32c.reset();
+    CodedOutputStream cos = CodedOutputStream.newInstance(recordStream);
+    message.writeTo(cos);
+    cos.flush();
+    int dataCrc = crc32c.getMaskedValue();
+    if (channel == null) {
+      output.writeInt(Integer.reverseBytes(dataCrc));
+    } else {
+      ensureRemaining(FOOTER_SIZE);
+      buffer.putInt(dataCrc);
+    }
+    position += HEADER_SIZE + length + FOOTER_SIZE;
+  }
+
+  /**
+   * Copies records that are already framed, such as records of another file written by this class. Not supported
+   * when compressing, as the records would be copied uncompressed.
+   *
+   * @param source   channel to copy from
+   * @param offset   position of the first record header in <code>source</code>
+   * @param length   number of bytes to copy, spanning whole records
+   */
+  public void transferFrom(FileChannel source, long offset, long length) throws IOException {
+    if (channel == null) {
+      throw new UnsupportedOperationException("Records can only be transferred to a channel");
+    }
+    if (compressor != null) {
+      throw new UnsupportedOperationException("Records cannot be transferred to a compressed file");
+    }
+    drain();
+    long copied = 0;
+    while (copied < length) {
+      long count = source.transferTo(offset + copied, length - copied, channel);
+      if (count <= 0) {
+        throw new EOFException("Unable to copy " + length + " bytes at " + offset);
+      }
+      copied += count;
+    }
+    position += length;
+  }
+
+  /**
+   * @return the number of bytes written so far, including buffered records, before compression
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+   * Writes out the buffered records
+   */
+  @Override
+  public void flush() throws IOException {
+    if (channel != null) {
+      drain();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      try {
+        drain();
+      } finally {
+        // Closing the compressor finishes the compressed stream and closes the channel
+        if (compressor != null) {
+          compressor.close();
+        } else {
+          channel.close();
+        }
+      }
+    }
+  }
+
+  private void fillHeader(long length) {
+    for (int i = 0; i < 8; i++) {
+      header[i] = (byte) (length >>> (i * 8));
+    }
+    crc32c.reset();
+    crc32c.update(header, 0, 8);
+    int lengthCrc = crc32c.getMaskedValue();
+    for (int i = 0; i < 4; i++) {
+      header[8 + i] = (byte) (lengthCrc >>> (i * 8));
+    }
+  }
+
+  private void put(byte[] bytes, int offset, int length) throws IOException {
+    while (length > 0) {
+      if (!buffer.hasRemaining()) {
+        drain();
+      }
+      int chunk = Math.min(buffer.remaining(), length);
+      buffer.put(bytes, offset, chunk);
+      offset += chunk;
+      length -= chunk;
+    }
+  }
+
+  private void ensureRemaining(int size) throws IOException {
+    if (buffer.remaining() < size) {
+      drain();
+    }
   }
 
-  private byte[] toInt32LE(int data) {
-    byte[] buff = new byte[4];
-    ByteBuffer bb = ByteBuffer.wrap(buff);
-    bb.order(ByteOrder.LITTLE_ENDIAN);
-    bb.putInt(data);
-    return buff;
+  private void drain() throws IOException {
+    buffer.flip();
+    if (compressor != null) {
+      compressor.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    } else {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+    buffer.clear();
   }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.easymobo.openlabeler.tensorflow;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeduplicatorTest
+{
+    @TempDir
+    Path dir;
+
+    @Test
+    public void keepsTheFirstOfExactDuplicates() {
+        List<RecordManifest.Entry> entries = List.of(
+              entry("b.xml", "1111", 0L, "cat"),
+              entry("a.xml", "1111", 0L, "cat"),
+              entry("c.xml", "2222", 0L, "cat"));
+
+        Deduplicator deduplicator = new Deduplicator(entries, false);
+
+        assertFalse(deduplicator.isDuplicate("a.xml"));
+        assertTrue(deduplicator.isDuplicate("b.xml"));
+        assertFalse(deduplicator.isDuplicate("c.xml"));
+        assertEquals(1, deduplicator.getExactCount());
+        assertEquals(0, deduplicator.getNearCount());
+    }
+
+    @Test
+    public void prefersExamplesWithObjects() {
+        List<RecordManifest.Entry> entries = List.of(
+              entry("a.xml", "1111", 0L),
+              entry("b.xml", "1111", 0L, "dog"));
+
+        Deduplicator deduplicator = new Deduplicator(entries, false);
+
+        assertTrue(deduplicator.isDuplicate("a.xml"));
+        assertFalse(deduplicator.isDuplicate("b.xml"));
+    }
+
+    @Test
+    public void findsNearDuplicatesWithinTheDistance() {
+        long hash = 0x0123456789abcdefL;
+        List<RecordManifest.Entry> entries = List.of(
+              entry("a.xml", "1111", hash, "cat"),
+              entry("b.xml", "2222", hash ^ 0xf000000000000000L, "cat"),
+              entry("c.xml", "3333", hash ^ 0x1111100000000000L, "cat"),
+              entry("d.xml", "4444", ~hash, "cat"));
+
+        Deduplicator deduplicator = new Deduplicator(entries, true);
+
+        assertTrue(deduplicator.isDuplicate("b.xml"));
+        assertFalse(deduplicator.isDuplicate("c.xml"));
+        assertFalse(deduplicator.isDuplicate("d.xml"));
+        assertEquals(0, deduplicator.getExactCount());
+        assertEquals(1, deduplicator.getNearCount());
+
+        assertFalse(new Deduplicator(entries, false).isDuplicate("b.xml"));
+    }
+
+    @Test
+    public void ignoresExamplesWithoutImages() {
+        List<RecordManifest.Entry> entries = List.of(
+              entry("a.xml", null, 0L, "cat"),
+              entry("b.xml", null, 0L, "cat"));
+
+        Deduplicator deduplicator = new Deduplicator(entries, true);
+
+        assertFalse(deduplicator.isDuplicate("a.xml"));
+        assertFalse(deduplicator.isDuplicate("b.xml"));
+    }
+
+    @Test
+    public void hashesResizedImagesAlike() throws IOException {
+        File original = write(gradient(320, 240, false), "original.png");
+        File resized = write(gradient(160, 120, false), "resized.jpg");
+        File mirrored = write(gradient(320, 240, true), "mirrored.png");
+
+        long hash = Deduplicator.perceptualHash(original);
+
+        assertTrue(Long.bitCount(hash ^ Deduplicator.perceptualHash(resized)) <= 4);
+        assertTrue(Long.bitCount(hash ^ Deduplicator.perceptualHash(mirrored)) > 4);
+    }
+
+    private static RecordManifest.Entry entry(String annotation, String imageSha256, Long perceptualHash, String... labels) {
+        RecordManifest.Entry entry = new RecordManifest.Entry(null, -1);
+        entry.annotation = annotation;
+        entry.imageSha256 = imageSha256;
+        entry.perceptualHash = perceptualHash;
+        entry.labels.addAll(List.of(labels));
+        return entry;
+    }
+
+    private static BufferedImage gradient(int width, int height, boolean mirrored) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = 255 * (mirrored ? width - 1 - x : x) / width;
+                value = (value + 64 * (y * 4 / height)) % 256;
+                image.setRGB(x, y, value << 16 | value << 8 | value);
+            }
+        }
+        return image;
+    }
+
+    private File write(BufferedImage image, String name) throws IOException {
+        File file = dir.resolve(name).toFile();
+        ImageIO.write(image, name.substring(name.lastIndexOf('.') + 1), file);
+        return file;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.easymobo.openlabeler.tensorflow;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImageNormalizerTest
+{
+    @Test
+    public void recognizesImageSignatures() throws IOException {
+        assertEquals("jpeg", ImageNormalizer.getFormat(encode(8, 8, "jpeg")));
+        assertEquals("png", ImageNormalizer.getFormat(encode(8, 8, "png")));
+        assertEquals("gif", ImageNormalizer.getFormat(encode(8, 8, "gif")));
+        assertEquals("bmp", ImageNormalizer.getFormat(encode(8, 8, "bmp")));
+        assertNull(ImageNormalizer.getFormat(new byte[]{1, 2, 3, 4}));
+        assertNull(ImageNormalizer.getFormat(new byte[0]));
+    }
+
+    @Test
+    public void embedsImagesAsTheyAreWithoutAMaximumSide() throws IOException {
+        byte[] png = encode(64, 32, "png");
+        ImageNormalizer.EncodedImage image = new ImageNormalizer(0, 90).normalize(png, 64, 32);
+
+        assertSame(png, image.getBytes());
+        assertEquals("png", image.getFormat());
+        assertEquals(64, image.getWidth());
+        assertEquals(32, image.getHeight());
+    }
+
+    @Test
+    public void embedsSmallJpegsAsTheyAre() throws IOException {
+        byte[] jpeg = encode(64, 32, "jpeg");
+        ImageNormalizer.EncodedImage image = new ImageNormalizer(64, 90).normalize(jpeg, 64, 32);
+
+        assertSame(jpeg, image.getBytes());
+        assertEquals("jpeg", image.getFormat());
+    }
+
+    @Test
+    public void reencodesOtherFormatsAsJpeg() throws IOException {
+        ImageNormalizer.EncodedImage image = new ImageNormalizer(64, 90).normalize(encode(64, 32, "png"), 64, 32);
+
+        assertEquals("jpeg", image.getFormat());
+        assertEquals("jpeg", ImageNormalizer.getFormat(image.getBytes()));
+        assertEquals(64, image.getWidth());
+        assertEquals(32, image.getHeight());
+    }
+
+    @Test
+    public void downsizesLargeImagesKeepingTheirAspectRatio() throws IOException {
+        ImageNormalizer.EncodedImage image = new ImageNormalizer(100, 90).normalize(encode(400, 300, "jpeg"), 400, 300);
+
+        assertEquals(100, image.getWidth());
+        assertEquals(75, image.getHeight());
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(image.getBytes()));
+        assertEquals(100, decoded.getWidth());
+        assertEquals(75, decoded.getHeight());
+    }
+
+    @Test
+    public void rejectsImagesItCannotDecode() {
+        byte[] truncated = {(byte)0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a};
+        assertThrows(IOException.class, () -> new ImageNormalizer(100, 90).normalize(truncated, 400, 300));
+    }
+
+    @Test
+    public void describesItsOptions() {
+        assertEquals("original", new ImageNormalizer(0, 90).getOptions());
+        assertEquals("original", new ImageNormalizer(-1, 90).getOptions());
+        assertEquals("maxSide=1024;quality=90", new ImageNormalizer(1024, 90).getOptions());
+        assertEquals("maxSide=1024;quality=100", new ImageNormalizer(1024, 150).getOptions());
+        assertNotEquals(new ImageNormalizer(1024, 90).getOptions(), new ImageNormalizer(1024, 80).getOptions());
+    }
+
+    private static byte[] encode(int width, int height, String format) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8);
+            }
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, format, bos), format);
+        return bos.toByteArray();
+    }
+}
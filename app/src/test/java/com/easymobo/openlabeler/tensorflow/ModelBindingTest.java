@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.easymobo.openlabeler.tensorflow;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ModelBindingTest
+{
+    @TempDir
+    Path dir;
+
+    @Test
+    public void fingerprintsTheGraphAndVariablesIndex() throws IOException {
+        Files.write(dir.resolve("saved_model.pb"), new byte[]{1, 2, 3});
+        Files.createDirectory(dir.resolve("variables"));
+        Files.write(dir.resolve("variables").resolve("variables.index"), new byte[]{4, 5, 6});
+        String fingerprint = ModelBinding.fingerprint(dir.toFile());
+
+        assertEquals(16, fingerprint.length());
+        assertTrue(fingerprint.matches("[0-9a-f]+"), fingerprint);
+        assertEquals(fingerprint, ModelBinding.fingerprint(dir.toFile()));
+
+        // Variable data is covered by its index, so it is not read
+        Files.write(dir.resolve("variables").resolve("variables.data-00000-of-00001"), new byte[1024]);
+        assertEquals(fingerprint, ModelBinding.fingerprint(dir.toFile()));
+    }
+
+    @Test
+    public void changesWhenTheModelIsReexported() throws IOException {
+        Files.write(dir.resolve("saved_model.pb"), new byte[]{1, 2, 3});
+        Files.createDirectory(dir.resolve("variables"));
+        Files.write(dir.resolve("variables").resolve("variables.index"), new byte[]{4, 5, 6});
+        String fingerprint = ModelBinding.fingerprint(dir.toFile());
+
+        Files.write(dir.resolve("variables").resolve("variables.index"), new byte[]{4, 5, 7});
+        String retrained = ModelBinding.fingerprint(dir.toFile());
+        assertNotEquals(fingerprint, retrained);
+
+        Files.write(dir.resolve("saved_model.pb"), new byte[]{1, 2, 4});
+        assertNotEquals(retrained, ModelBinding.fingerprint(dir.toFile()));
+    }
+
+    @Test
+    public void fingerprintsMissingFilesAsEmpty() throws IOException {
+        Path other = Files.createDirectory(dir.resolve("other"));
+
+        assertEquals(ModelBinding.fingerprint(other.toFile()), ModelBinding.fingerprint(dir.toFile()));
+        Files.write(dir.resolve("saved_model.pb"), new byte[]{1});
+        assertNotEquals(ModelBinding.fingerprint(other.toFile()), ModelBinding.fingerprint(dir.toFile()));
+    }
+}
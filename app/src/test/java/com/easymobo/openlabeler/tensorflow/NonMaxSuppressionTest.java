@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.easymobo.openlabeler.tensorflow;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class NonMaxSuppressionTest
+{
+    @Test
+    public void suppressesOverlappingBoxesOfTheSameClass() {
+        float[] boxes = {
+              0, 0, 10, 10,
+              1, 1, 11, 11,
+              20, 20, 30, 30
+        };
+        float[] scores = {0.8f, 0.9f, 0.7f};
+        int[] classes = {1, 1, 1};
+
+        int[] kept = NonMaxSuppression.apply(boxes, scores, classes, 3, 0.5f, 0);
+
+        assertArrayEquals(new int[]{1, 2}, kept);
+    }
+
+    @Test
+    public void keepsOverlappingBoxesOfDifferentClasses() {
+        float[] boxes = {
+              0, 0, 10, 10,
+              1, 1, 11, 11
+        };
+        float[] scores = {0.8f, 0.9f};
+        int[] classes = {1, 2};
+
+        int[] kept = NonMaxSuppression.apply(boxes, scores, classes, 2, 0.5f, 0);
+
+        assertArrayEquals(new int[]{1, 0}, kept);
+    }
+
+    @Test
+    public void keepsBoxesOverlappingAtTheThreshold() {
+        // Intersection 50, union 150
+        float[] boxes = {
+              0, 0, 10, 10,
+              5, 0, 15, 10
+        };
+        float[] scores = {0.9f, 0.8f};
+        int[] classes = {1, 1};
+
+        assertArrayEquals(new int[]{0, 1}, NonMaxSuppression.apply(boxes, scores, classes, 2, 1 / 3f, 0));
+        assertArrayEquals(new int[]{0}, NonMaxSuppression.apply(boxes, scores, classes, 2, 0.3f, 0));
+    }
+
+    @Test
+    public void capsBoxesPerClassByScore() {
+        float[] boxes = new float[5 * 4];
+        for (int i = 0; i < 5; i++) {
+            boxes[i * 4] = i * 20;
+            boxes[i * 4 + 1] = 0;
+            boxes[i * 4 + 2] = i * 20 + 10;
+            boxes[i * 4 + 3] = 10;
+        }
+        float[] scores = {0.5f, 0.9f, 0.6f, 0.8f, 0.7f};
+        int[] classes = {1, 1, 2, 1, 2};
+
+        int[] kept = NonMaxSuppression.apply(boxes, scores, classes, 5, 0.5f, 1);
+
+        assertArrayEquals(new int[]{1, 4}, kept);
+    }
+
+    @Test
+    public void ignoresBoxesBeyondCount() {
+        float[] boxes = {
+              0, 0, 10, 10,
+              20, 20, 30, 30
+        };
+        float[] scores = {0.5f, 0.9f};
+        int[] classes = {1, 1};
+
+        assertArrayEquals(new int[]{0}, NonMaxSuppression.apply(boxes, scores, classes, 1, 0.5f, 0));
+    }
+
+    @Test
+    public void sortsByDescendingScore() {
+        float[] scores = {0.2f, 0.9f, 0f, 0.5f};
+
+        assertArrayEquals(new int[]{1, 3, 0, 2}, NonMaxSuppression.sortByScore(scores, 4));
+    }
+
+    @Test
+    public void computesIntersectionOverUnion() {
+        float[] boxes = {
+              0, 0, 10, 10,
+              5, 5, 15, 15,
+              10, 10, 20, 20
+        };
+
+        assertEquals(25f / 175f, NonMaxSuppression.iou(boxes, 0, boxes, 1), 1e-6);
+        assertEquals(0f, NonMaxSuppression.iou(boxes, 0, boxes, 2));
+        assertEquals(1f, NonMaxSuppression.iou(boxes, 1, boxes, 1));
+    }
+}
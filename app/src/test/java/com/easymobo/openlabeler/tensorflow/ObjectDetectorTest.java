@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.easymobo.openlabeler.tensorflow;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ObjectDetectorTest
+{
+    private static final int WIDTH = 5, HEIGHT = 3;
+
+    @Test
+    public void convertsBgrImagesInPlace() {
+        BufferedImage image = createImage(BufferedImage.TYPE_3BYTE_BGR);
+        byte[] rgb = ObjectDetector.toRGB(image, WIDTH * HEIGHT * 3);
+
+        assertRGB(rgb);
+    }
+
+    @Test
+    public void expandsGrayImages() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.getRaster().setSample(x, y, 0, x * 50 + y);
+            }
+        }
+        byte[] rgb = ObjectDetector.toRGB(image, WIDTH * HEIGHT * 3);
+
+        for (int y = 0, j = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                for (int c = 0; c < 3; c++) {
+                    assertEquals(x * 50 + y, rgb[j++] & 0xff, x + "," + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void convertsOtherImageTypes() {
+        assertRGB(ObjectDetector.toRGB(createImage(BufferedImage.TYPE_INT_RGB), WIDTH * HEIGHT * 3));
+        assertRGB(ObjectDetector.toRGB(createImage(BufferedImage.TYPE_INT_ARGB), WIDTH * HEIGHT * 3));
+        assertRGB(ObjectDetector.toRGB(createImage(BufferedImage.TYPE_4BYTE_ABGR), WIDTH * HEIGHT * 3));
+    }
+
+    @Test
+    public void convertsIndexedImages() {
+        byte[] red = {0, (byte)200}, green = {0, 100}, blue = {0, 50};
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_INDEXED,
+                new IndexColorModel(1, 2, red, green, blue));
+        image.getRaster().setSample(1, 0, 0, 1);
+        byte[] rgb = ObjectDetector.toRGB(image, WIDTH * HEIGHT * 3);
+
+        assertArrayEquals(new byte[]{0, 0, 0, (byte)200, 100, 50}, Arrays.copyOf(rgb, 6));
+    }
+
+    @Test
+    public void reusesItsScratchBuffer() {
+        byte[] first = ObjectDetector.toRGB(createImage(BufferedImage.TYPE_INT_RGB), WIDTH * HEIGHT * 3);
+        byte[] second = ObjectDetector.toRGB(createImage(BufferedImage.TYPE_INT_RGB), WIDTH * HEIGHT * 3);
+
+        assertSame(first, second);
+    }
+
+    private static BufferedImage createImage(int type) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, 0xff000000 | getRGB(x, y));
+            }
+        }
+        return image;
+    }
+
+    private static int getRGB(int x, int y) {
+        return (x * 40) << 16 | (y * 60) << 8 | (x + y) * 20;
+    }
+
+    private static void assertRGB(byte[] rgb) {
+        for (int y = 0, j = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int expected = getRGB(x, y);
+                assertEquals(expected >> 16 & 0xff, rgb[j++] & 0xff, "red " + x + "," + y);
+                assertEquals(expected >> 8 & 0xff, rgb[j++] & 0xff, "green " + x + "," + y);
+                assertEquals(expected & 0xff, rgb[j++] & 0xff, "blue " + x + "," + y);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.easymobo.openlabeler.tensorflow;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tensorflow.hadoop.util.TFRecordCompression;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordManifestTest
+{
+    private static final Map<String, Integer> LABEL_MAP = Map.of("cat", 1, "dog", 2);
+    private static final String IMAGE_OPTIONS = "maxSide=1024,quality=90";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void loadsWhatWasSaved() {
+        RecordManifest manifest = createManifest();
+        manifest.save(dir);
+
+        RecordManifest loaded = RecordManifest.load(dir, LABEL_MAP, 4, IMAGE_OPTIONS, TFRecordCompression.GZIP);
+        assertEquals(2, loaded.getEntries().size());
+        assertEquals(1234, loaded.getRecordSize("train.record-00001-of-00004"));
+        assertEquals(-1, loaded.getRecordSize("eval.record-00000-of-00004"));
+
+        RecordManifest.Entry entry = loaded.getEntry("cat.xml");
+        assertEquals("cat.xml", entry.annotation);
+        assertEquals(100, entry.annotationModified);
+        assertEquals("a".repeat(64), entry.annotationSha256);
+        assertEquals("cat.jpg", entry.image);
+        assertEquals(200, entry.imageModified);
+        assertEquals("b".repeat(64), entry.imageSha256);
+        assertEquals(0x0123456789abcdefL, entry.perceptualHash);
+        assertFalse(entry.duplicate);
+        assertEquals(List.of("cat", "dog"), entry.labels);
+        assertEquals("train", entry.split);
+        assertEquals(1, entry.shard);
+        assertEquals(16, entry.offset);
+        assertEquals(512, entry.length);
+
+        RecordManifest.Entry duplicate = loaded.getEntry("copy.xml");
+        assertNull(duplicate.image);
+        assertNull(duplicate.imageSha256);
+        assertNull(duplicate.perceptualHash);
+        assertTrue(duplicate.duplicate);
+        assertTrue(duplicate.labels.isEmpty());
+        assertEquals(-1, duplicate.shard);
+    }
+
+    @Test
+    public void loadsAnEmptyManifestWithoutAFile() {
+        assertTrue(RecordManifest.load(dir, LABEL_MAP, 4, IMAGE_OPTIONS, TFRecordCompression.GZIP).isEmpty());
+    }
+
+    @Test
+    public void rebuildsWhenTheRecordsWereCreatedDifferently() {
+        RecordManifest manifest = createManifest();
+        manifest.save(dir);
+
+        assertTrue(RecordManifest.load(dir, Map.of("cat", 1), 4, IMAGE_OPTIONS, TFRecordCompression.GZIP).isEmpty());
+        assertTrue(RecordManifest.load(dir, LABEL_MAP, 8, IMAGE_OPTIONS, TFRecordCompression.GZIP).isEmpty());
+        assertTrue(RecordManifest.load(dir, LABEL_MAP, 4, "maxSide=512,quality=90", TFRecordCompression.GZIP).isEmpty());
+        assertTrue(RecordManifest.load(dir, LABEL_MAP, 4, IMAGE_OPTIONS, TFRecordCompression.ZLIB).isEmpty());
+        assertFalse(RecordManifest.load(dir, LABEL_MAP, 4, IMAGE_OPTIONS, TFRecordCompression.GZIP).isEmpty());
+    }
+
+    @Test
+    public void rebuildsWhenTheFileIsCorrupt() throws Exception {
+        RecordManifest manifest = createManifest();
+        manifest.save(dir);
+
+        Path file = dir.resolve(RecordManifest.FILE_NAME);
+        String json = Files.readString(file);
+        Files.writeString(file, json.substring(0, json.length() / 2));
+
+        RecordManifest loaded = RecordManifest.load(dir, LABEL_MAP, 4, IMAGE_OPTIONS, TFRecordCompression.GZIP);
+        assertTrue(loaded.isEmpty());
+        assertEquals(-1, loaded.getRecordSize("train.record-00001-of-00004"));
+    }
+
+    @Test
+    public void leavesNoTemporaryFiles() throws Exception {
+        RecordManifest manifest = createManifest();
+        manifest.save(dir);
+        manifest.save(dir);
+
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of(dir.resolve(RecordManifest.FILE_NAME)), files.toList());
+        }
+    }
+
+    private static RecordManifest createManifest() {
+        RecordManifest manifest = new RecordManifest(LABEL_MAP, 4, IMAGE_OPTIONS, TFRecordCompression.GZIP);
+        manifest.setRecordSize("train.record-00001-of-00004", 1234);
+
+        RecordManifest.Entry entry = new RecordManifest.Entry("train", 1);
+        entry.annotation = "cat.xml";
+        entry.annotationModified = 100;
+        entry.annotationSha256 = "a".repeat(64);
+        entry.image = "cat.jpg";
+        entry.imageModified = 200;
+        entry.imageSha256 = "b".repeat(64);
+        entry.perceptualHash = 0x0123456789abcdefL;
+        entry.labels.addAll(List.of("cat", "dog"));
+        entry.offset = 16;
+        entry.length = 512;
+        manifest.putEntry(entry);
+
+        RecordManifest.Entry duplicate = new RecordManifest.Entry("train", -1);
+        duplicate.annotation = "copy.xml";
+        duplicate.annotationSha256 = "c".repeat(64);
+        duplicate.duplicate = true;
+        manifest.putEntry(duplicate);
+        return manifest;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.easymobo.openlabeler.tensorflow;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TFRecordCreatorTest
+{
+    @Test
+    public void splitsTheSameWayInAnyOrder() {
+        List<RecordManifest.Entry> entries = createEntries(500, "cat", "dog");
+        Map<String, String> splits = TFRecordCreator.assignSplits(entries, 30);
+
+        List<RecordManifest.Entry> shuffled = new ArrayList<>(entries);
+        Collections.reverse(shuffled);
+
+        assertEquals(splits, TFRecordCreator.assignSplits(shuffled, 30));
+    }
+
+    @Test
+    public void keepsExamplesInTheirSplitWhenOthersChange() {
+        List<RecordManifest.Entry> entries = createEntries(1000, "cat", "dog");
+        Map<String, String> before = TFRecordCreator.assignSplits(entries, 30);
+
+        List<RecordManifest.Entry> changed = new ArrayList<>(entries.subList(100, 1000));
+        changed.addAll(createEntries(1200, "cat", "dog").subList(1000, 1200));
+        Map<String, String> after = TFRecordCreator.assignSplits(changed, 30);
+
+        for (RecordManifest.Entry entry : entries.subList(100, 1000)) {
+            assertEquals(before.get(entry.annotation), after.get(entry.annotation), entry.annotation);
+        }
+    }
+
+    @Test
+    public void dividesEachLabelInProportion() {
+        List<RecordManifest.Entry> entries = createEntries(3000, "cat", "dog", "bird");
+        Map<String, String> splits = TFRecordCreator.assignSplits(entries, 30);
+
+        for (String label : List.of("cat", "dog", "bird")) {
+            long total = entries.stream().filter(entry -> entry.labels.contains(label)).count();
+            long eval = entries.stream().filter(entry -> entry.labels.contains(label))
+                  .filter(entry -> "eval".equals(splits.get(entry.annotation))).count();
+            assertEquals(0.3, (double)eval / total, 0.05, label);
+        }
+    }
+
+    @Test
+    public void trainsAndEvaluatesRareLabels() {
+        List<RecordManifest.Entry> entries = createEntries(200, "cat");
+        entries.add(createEntry("rare-1.xml", "cat", "zebra"));
+        entries.add(createEntry("rare-2.xml", "zebra"));
+        entries.add(createEntry("single.xml", "okapi"));
+
+        for (int percent : new int[]{1, 30, 99}) {
+            Map<String, String> splits = TFRecordCreator.assignSplits(entries, percent);
+            assertNotEquals(splits.get("rare-1.xml"), splits.get("rare-2.xml"), percent + "%");
+        }
+    }
+
+    @Test
+    public void putsEverythingInOneSplitAtTheExtremes() {
+        List<RecordManifest.Entry> entries = createEntries(100, "cat");
+        entries.add(createEntry("rare-1.xml", "zebra"));
+        entries.add(createEntry("rare-2.xml", "zebra"));
+
+        assertTrue(TFRecordCreator.assignSplits(entries, 0).values().stream().allMatch("train"::equals));
+        assertTrue(TFRecordCreator.assignSplits(entries, 100).values().stream().allMatch("eval"::equals));
+    }
+
+    @Test
+    public void trainsOnExamplesWithoutAKey() {
+        RecordManifest.Entry entry = new RecordManifest.Entry(null, -1);
+        entry.annotation = "missing.xml";
+
+        assertEquals("train", TFRecordCreator.assignSplits(List.of(entry), 50).get("missing.xml"));
+    }
+
+    private static List<RecordManifest.Entry> createEntries(int count, String... labels) {
+        List<RecordManifest.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(createEntry("example-" + i + ".xml", labels[i % labels.length]));
+        }
+        return entries;
+    }
+
+    private static RecordManifest.Entry createEntry(String annotation, String... labels) {
+        RecordManifest.Entry entry = new RecordManifest.Entry(null, -1);
+        entry.annotation = annotation;
+        entry.imageSha256 = DigestUtils.sha256Hex(annotation);
+        entry.labels.addAll(List.of(labels));
+        return entry;
+    }
+}
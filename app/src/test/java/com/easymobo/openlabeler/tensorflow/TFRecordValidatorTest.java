@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.easymobo.openlabeler.tensorflow;
+
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tensorflow.hadoop.util.MappedTFRecordReader;
+import org.tensorflow.hadoop.util.TFRecordCompression;
+import org.tensorflow.hadoop.util.TFRecordWriter;
+import org.tensorflow.proto.example.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TFRecordValidatorTest
+{
+    @TempDir
+    Path dir;
+
+    @Test
+    public void countsRecordsAndBoxes() throws IOException {
+        // More records than a batch, so that a file is checked by several tasks
+        Path train = write("train.record-00000-of-00002", TFRecordCompression.NONE, 300, 0.1f, 0.2f);
+        Path eval = write("eval.record-00000-of-00002", TFRecordCompression.GZIP, 50, 0.1f, 0.2f);
+
+        TFRecordValidator.Report report = TFRecordValidator.validate(List.of(train, eval));
+        assertTrue(report.isValid(), report.getErrors().toString());
+        assertEquals(2, report.getFiles());
+        assertEquals(350, report.getRecords());
+        assertEquals(700, report.getBoxes());
+        assertEquals(Map.of("cat", 350L, "dog", 350L), report.getBoxesPerLabel());
+    }
+
+    @Test
+    public void reportsInvalidBoxes() throws IOException {
+        Path train = write("train.record", TFRecordCompression.NONE, 3, 0.5f, 0.2f);
+
+        TFRecordValidator.Report report = TFRecordValidator.validate(List.of(train));
+        assertFalse(report.isValid());
+        assertEquals(3, report.getRecords());
+        assertEquals(6, report.getBoxes());
+        assertEquals(3, report.getInvalidBoxes());
+        assertEquals(3, report.getErrors().size());
+        assertTrue(report.getErrors().get(0).contains("(cat) is invalid"), report.getErrors().get(0));
+    }
+
+    @Test
+    public void reportsCorruptRecords() throws IOException {
+        Path train = write("train.record", TFRecordCompression.NONE, 3, 0.1f, 0.2f);
+        // Flip a byte in the data of the first record, after its length and the CRC of the length
+        byte[] bytes = Files.readAllBytes(train);
+        bytes[12] ^= 1;
+        Files.write(train, bytes);
+
+        TFRecordValidator.Report report = TFRecordValidator.validate(List.of(train));
+        assertFalse(report.isValid());
+        assertEquals(1, report.getCorruptRecords());
+        assertEquals(2, report.getRecords());
+        assertTrue(report.getErrors().get(0).startsWith("train.record record 0"), report.getErrors().get(0));
+    }
+
+    @Test
+    public void reportsUnreadableFiles() throws IOException {
+        Path train = write("train.record", TFRecordCompression.NONE, 3, 0.1f, 0.2f);
+        Path eval = Files.writeString(dir.resolve("eval.record"), "not a record");
+
+        TFRecordValidator.Report report = TFRecordValidator.validate(List.of(train, eval));
+        assertFalse(report.isValid());
+        assertEquals(1, report.getUnreadableFiles());
+        assertEquals(3, report.getRecords());
+    }
+
+    @Test
+    public void findsOnlyRecordFiles() throws IOException {
+        for (String name : new String[]{"train.record-00001-of-00002", "eval.record", "train.record-00000-of-00002",
+                "train.record-00000-of-00002" + MappedTFRecordReader.INDEX_SUFFIX, "eval.record.tmp", "label_map.pbtxt"}) {
+            Files.createFile(dir.resolve(name));
+        }
+
+        assertEquals(List.of(dir.resolve("eval.record"), dir.resolve("train.record-00000-of-00002"),
+                dir.resolve("train.record-00001-of-00002")), TFRecordValidator.findRecordFiles(dir.toString()));
+        assertTrue(TFRecordValidator.findRecordFiles(dir.resolve("missing").toString()).isEmpty());
+    }
+
+    /**
+     * Writes <code>count</code> examples with a cat box from (<code>min</code>, <code>min</code>) to
+     * (<code>max</code>, <code>max</code>) and a valid dog box.
+     */
+    private Path write(String name, TFRecordCompression compression, int count, float min, float max) throws IOException {
+        Path file = dir.resolve(name);
+        Example example = Example.newBuilder().setFeatures(Features.newBuilder()
+                .putFeature("image/width", int64(640))
+                .putFeature("image/height", int64(480))
+                .putFeature("image/object/bbox/xmin", floats(min, 0.5f))
+                .putFeature("image/object/bbox/xmax", floats(max, 0.9f))
+                .putFeature("image/object/bbox/ymin", floats(min, 0.5f))
+                .putFeature("image/object/bbox/ymax", floats(max, 0.9f))
+                .putFeature("image/object/class/text", Feature.newBuilder().setBytesList(BytesList.newBuilder()
+                        .addValue(ByteString.copyFromUtf8("cat")).addValue(ByteString.copyFromUtf8("dog"))).build()))
+                .build();
+        try (TFRecordWriter writer = new TFRecordWriter(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), 4096, compression)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(example);
+            }
+        }
+        return file;
+    }
+
+    private static Feature int64(long value) {
+        return Feature.newBuilder().setInt64List(Int64List.newBuilder().addValue(value)).build();
+    }
+
+    private static Feature floats(float... values) {
+        FloatList.Builder list = FloatList.newBuilder();
+        for (float value : values) {
+            list.addValue(value);
+        }
+        return Feature.newBuilder().setFloatList(list).build();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.easymobo.openlabeler.tensorflow;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class WeightedBoxFusionTest
+{
+    @Test
+    public void averagesOverlappingBoxesWeightedByScore() {
+        float[] boxes = {
+              0, 0, 10, 10,
+              2, 0, 12, 10
+        };
+        float[] scores = {0.8f, 0.6f};
+        int[] classes = {1, 1};
+
+        int count = WeightedBoxFusion.fuse(boxes, scores, classes, 2, 2, 0.5f);
+
+        assertEquals(1, count);
+        assertArrayEquals(new float[]{1.2f / 1.4f, 0, 15.2f / 1.4f, 10}, new float[]{boxes[0], boxes[1], boxes[2], boxes[3]}, 1e-5f);
+        assertEquals(0.7f, scores[0], 1e-6f);
+        assertEquals(1, classes[0]);
+    }
+
+    @Test
+    public void lowersScoreWhenFewerModelsAgree() {
+        float[] boxes = {0, 0, 10, 10};
+        float[] scores = {0.8f};
+        int[] classes = {1};
+
+        int count = WeightedBoxFusion.fuse(boxes, scores, classes, 1, 2, 0.5f);
+
+        assertEquals(1, count);
+        assertEquals(0.4f, scores[0], 1e-6f);
+        assertArrayEquals(new float[]{0, 0, 10, 10}, boxes, 0f);
+    }
+
+    @Test
+    public void keepsBoxesOfDifferentClassesApart() {
+        float[] boxes = {
+              0, 0, 10, 10,
+              0, 0, 10, 10
+        };
+        float[] scores = {0.9f, 0.5f};
+        int[] classes = {1, 2};
+
+        int count = WeightedBoxFusion.fuse(boxes, scores, classes, 2, 1, 0.5f);
+
+        assertEquals(2, count);
+        assertArrayEquals(new int[]{1, 2}, classes);
+        assertArrayEquals(new float[]{0.9f, 0.5f}, scores, 1e-6f);
+    }
+
+    @Test
+    public void keepsSeparateBoxesApart() {
+        float[] boxes = {
+              0, 0, 10, 10,
+              20, 20, 30, 30,
+              1, 0, 11, 10
+        };
+        float[] scores = {0.6f, 0.9f, 0.6f};
+        int[] classes = {1, 1, 1};
+
+        int count = WeightedBoxFusion.fuse(boxes, scores, classes, 3, 2, 0.5f);
+
+        // Clusters are created in descending score order
+        assertEquals(2, count);
+        assertArrayEquals(new float[]{20, 20, 30, 30}, new float[]{boxes[0], boxes[1], boxes[2], boxes[3]}, 1e-5f);
+        assertEquals(0.45f, scores[0], 1e-6f);
+        assertArrayEquals(new float[]{0.5f, 0, 10.5f, 10}, new float[]{boxes[4], boxes[5], boxes[6], boxes[7]}, 1e-5f);
+        assertEquals(0.6f, scores[1], 1e-6f);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ==============================================================================
+ */
+
+package org.tensorflow.hadoop.util;
+
+import org.apache.hadoop.util.PureJavaCrc32C;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class Crc32CTest {
+  private static final byte[] CHECK = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+  @Test
+  public void matchesKnownVectors() {
+    assertEquals(0xe3069283, checksum(CHECK));
+    // RFC 3720 iSCSI test vectors
+    assertEquals(0x8a9136aa, checksum(new byte[32]));
+    byte[] ascending = new byte[32];
+    for (int i = 0; i < ascending.length; i++) {
+      ascending[i] = (byte) i;
+    }
+    assertEquals(0x46dd794e, checksum(ascending));
+  }
+
+  @Test
+  public void masksAsTensorFlowDoes() {
+    assertEquals(0xc78ab0e5, Crc32C.maskedCrc32c(CHECK));
+    assertEquals(0xe3069283, Crc32C.unmask(Crc32C.mask(0xe3069283)));
+  }
+
+  @Test
+  public void agreesWithPureJavaImplementation() {
+    byte[] data = new byte[100_000];
+    new Random(42).nextBytes(data);
+    PureJavaCrc32C pure = new PureJavaCrc32C();
+    pure.update(data, 0, data.length);
+    assertEquals((int) pure.getValue(), checksum(data));
+  }
+
+  @Test
+  public void updatesFromArraysBuffersAndBytesAlike() {
+    Crc32C crc = new Crc32C();
+    crc.update(CHECK, 0, 4);
+    crc.update(ByteBuffer.wrap(CHECK, 4, 4));
+    crc.update(CHECK[8]);
+    assertEquals(0xe3069283, crc.getIntValue());
+
+    crc.reset();
+    crc.update(ByteBuffer.allocateDirect(CHECK.length).put(CHECK).flip());
+    assertEquals(0xe3069283, crc.getIntValue());
+  }
+
+  private static int checksum(byte[] data) {
+    Crc32C crc = new Crc32C();
+    crc.update(data, 0, data.length);
+    return crc.getIntValue();
+  }
+}
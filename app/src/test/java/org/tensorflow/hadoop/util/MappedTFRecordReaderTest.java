@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ==============================================================================
+ */
+
+package org.tensorflow.hadoop.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MappedTFRecordReaderTest {
+  @TempDir
+  Path dir;
+
+  @Test
+  public void readsRecordsWrittenByTheWriter() throws IOException {
+    Path file = dir.resolve("train.record");
+    List<byte[]> records = List.of(TFRecordWriterTest.randomBytes(10), new byte[0], TFRecordWriterTest.randomBytes(5000));
+    write(file, records);
+
+    try (MappedTFRecordReader reader = new MappedTFRecordReader(file, true)) {
+      assertEquals(records.size(), reader.size());
+      assertEquals(0, reader.getOffset(0));
+      assertEquals(16 + 10, reader.getOffset(1));
+      for (int k = records.size() - 1; k >= 0; k--) {
+        assertArrayEquals(records.get(k), toArray(reader.read(k)));
+      }
+    }
+    assertTrue(Files.exists(MappedTFRecordReader.getIndexPath(file)));
+  }
+
+  @Test
+  public void reusesTheIndexOfAnUnchangedFile() throws IOException {
+    Path file = dir.resolve("train.record");
+    write(file, List.of(new byte[] {1}, new byte[] {2}));
+    new MappedTFRecordReader(file, true).close();
+    Path index = MappedTFRecordReader.getIndexPath(file);
+    FileTime indexed = FileTime.fromMillis(Files.getLastModifiedTime(index).toMillis() - 10_000);
+    Files.setLastModifiedTime(index, indexed);
+
+    try (MappedTFRecordReader reader = new MappedTFRecordReader(file, true)) {
+      assertEquals(2, reader.size());
+    }
+    assertEquals(indexed, Files.getLastModifiedTime(index));
+  }
+
+  @Test
+  public void rebuildsTheIndexWhenTheFileChanges() throws IOException {
+    Path file = dir.resolve("train.record");
+    write(file, List.of(new byte[10], new byte[10]));
+    FileTime modified = Files.getLastModifiedTime(file);
+    new MappedTFRecordReader(file, true).close();
+
+    // Same size, but a single record and a later modification time
+    write(file, List.of(new byte[36]));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 2000));
+
+    try (MappedTFRecordReader reader = new MappedTFRecordReader(file, true)) {
+      assertEquals(1, reader.size());
+      assertEquals(36, reader.read(0).remaining());
+    }
+  }
+
+  @Test
+  public void rebuildsACorruptIndex() throws IOException {
+    Path file = dir.resolve("train.record");
+    write(file, List.of(new byte[] {1}, new byte[] {2}, new byte[] {3}));
+    Files.write(MappedTFRecordReader.getIndexPath(file), new byte[] {1, 2, 3});
+
+    try (MappedTFRecordReader reader = new MappedTFRecordReader(file, true)) {
+      assertEquals(3, reader.size());
+      assertArrayEquals(new byte[] {3}, toArray(reader.read(2)));
+    }
+  }
+
+  @Test
+  public void detectsCorruptData() throws IOException {
+    Path file = dir.resolve("train.record");
+    write(file, List.of(new byte[] {1, 2, 3}));
+    byte[] bytes = Files.readAllBytes(file);
+    bytes[12] ^= 1;
+    Files.write(file, bytes);
+
+    try (MappedTFRecordReader reader = new MappedTFRecordReader(file, true)) {
+      assertThrows(IOException.class, () -> reader.read(0));
+    }
+    try (MappedTFRecordReader reader = new MappedTFRecordReader(file, false)) {
+      assertArrayEquals(new byte[] {0, 2, 3}, toArray(reader.read(0)));
+    }
+  }
+
+  private static void write(Path file, List<byte[]> records) throws IOException {
+    try (TFRecordWriter writer = new TFRecordWriter(FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+      for (byte[] record : records) {
+        writer.write(record);
+      }
+    }
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
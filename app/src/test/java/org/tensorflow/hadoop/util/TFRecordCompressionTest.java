@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ==============================================================================
+ */
+
+package org.tensorflow.hadoop.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.tensorflow.proto.example.Example;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TFRecordCompressionTest {
+  private static final int BUFFER_SIZE = 256;
+
+  @TempDir
+  Path dir;
+
+  @ParameterizedTest
+  @EnumSource(TFRecordCompression.class)
+  public void roundTripsCompressedRecords(TFRecordCompression compression) throws IOException {
+    Path file = dir.resolve("train.record");
+    byte[] first = TFRecordWriterTest.randomBytes(1000);
+    Example second = TFRecordWriterTest.createExample(5000);
+    long position;
+    try (TFRecordWriter writer = open(file, compression)) {
+      writer.write(first);
+      writer.write(second);
+      position = writer.getPosition();
+    }
+
+    assertEquals(compression, TFRecordCompression.detect(file));
+    List<byte[]> records = new ArrayList<>();
+    long size;
+    try (InputStream in = compression.decompress(Files.newInputStream(file), BUFFER_SIZE)) {
+      byte[] uncompressed = in.readAllBytes();
+      size = uncompressed.length;
+      TFRecordReader reader = new TFRecordReader(new DataInputStream(new ByteArrayInputStream(uncompressed)), true);
+      byte[] record;
+      while ((record = reader.read()) != null) {
+        records.add(record);
+      }
+    }
+    assertEquals(position, size);
+    assertEquals(2, records.size());
+    assertArrayEquals(first, records.get(0));
+    assertEquals(second, Example.parseFrom(records.get(1)));
+  }
+
+  @Test
+  public void compressesRepetitiveRecords() throws IOException {
+    Path file = dir.resolve("train.record");
+    try (TFRecordWriter writer = open(file, TFRecordCompression.GZIP)) {
+      for (int i = 0; i < 100; i++) {
+        writer.write(new byte[1000]);
+      }
+    }
+    assertTrue(Files.size(file) < 100 * 1000 / 10);
+  }
+
+  @Test
+  public void refusesToTransferIntoCompressedFiles() throws IOException {
+    Path source = dir.resolve("source.record");
+    try (TFRecordWriter writer = open(source, TFRecordCompression.NONE)) {
+      writer.write(new byte[] {1});
+    }
+    try (TFRecordWriter writer = open(dir.resolve("train.record"), TFRecordCompression.ZLIB);
+         FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+      assertThrows(UnsupportedOperationException.class, () -> writer.transferFrom(channel, 0, channel.size()));
+    }
+  }
+
+  @Test
+  public void detectsEmptyAndUnknownFilesAsUncompressed() throws IOException {
+    Path empty = Files.createFile(dir.resolve("empty.record"));
+    assertEquals(TFRecordCompression.NONE, TFRecordCompression.detect(empty));
+    Path text = Files.writeString(dir.resolve("text.record"), "not a record");
+    assertEquals(TFRecordCompression.NONE, TFRecordCompression.detect(text));
+  }
+
+  private static TFRecordWriter open(Path file, TFRecordCompression compression) throws IOException {
+    return new TFRecordWriter(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE), BUFFER_SIZE, compression);
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2024. Kin-Hong Wong. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ==============================================================================
+ */
+
+package org.tensorflow.hadoop.util;
+
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tensorflow.proto.example.BytesList;
+import org.tensorflow.proto.example.Example;
+import org.tensorflow.proto.example.Feature;
+import org.tensorflow.proto.example.Features;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TFRecordWriterTest {
+  private static final int BUFFER_SIZE = 64;
+
+  @TempDir
+  Path dir;
+
+  @Test
+  public void writesRecordsSpanningTheBuffer() throws IOException {
+    List<byte[]> records = List.of(new byte[0], randomBytes(1), randomBytes(BUFFER_SIZE - 16), randomBytes(1000));
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    long position;
+    try (TFRecordWriter writer = new TFRecordWriter(Channels.newChannel(bos), BUFFER_SIZE)) {
+      for (byte[] record : records) {
+        writer.write(record);
+      }
+      position = writer.getPosition();
+    }
+
+    assertEquals(bos.size(), position);
+    List<byte[]> read = readAll(bos.toByteArray());
+    assertEquals(records.size(), read.size());
+    for (int i = 0; i < records.size(); i++) {
+      assertArrayEquals(records.get(i), read.get(i));
+    }
+  }
+
+  @Test
+  public void writesTheSameBytesToChannelsAndDataOutputs() throws IOException {
+    Example small = createExample(100), large = createExample(10_000);
+    ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+    try (TFRecordWriter writer = new TFRecordWriter(Channels.newChannel(buffered), BUFFER_SIZE * 16)) {
+      writer.write(small);
+      writer.write(large);
+      writer.write(new byte[] {1, 2, 3});
+    }
+    ByteArrayOutputStream direct = new ByteArrayOutputStream();
+    TFRecordWriter writer = new TFRecordWriter(new DataOutputStream(direct));
+    writer.write(small);
+    writer.write(large);
+    writer.write(new byte[] {1, 2, 3});
+
+    assertArrayEquals(direct.toByteArray(), buffered.toByteArray());
+  }
+
+  @Test
+  public void streamsMessagesLargerThanTheBuffer() throws IOException {
+    Example example = createExample(10_000);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (TFRecordWriter writer = new TFRecordWriter(Channels.newChannel(bos), BUFFER_SIZE)) {
+      writer.write(example);
+    }
+
+    List<byte[]> read = readAll(bos.toByteArray());
+    assertEquals(1, read.size());
+    assertEquals(example, Example.parseFrom(read.get(0)));
+  }
+
+  @Test
+  public void transfersFramedRecords() throws IOException {
+    Path source = dir.resolve("source.record");
+    long second;
+    try (TFRecordWriter writer = new TFRecordWriter(FileChannel.open(source, StandardOpenOption.CREATE, StandardOpenOption.WRITE))) {
+      writer.write(new byte[] {1});
+      second = writer.getPosition();
+      writer.write(new byte[] {2, 2});
+      writer.write(new byte[] {3, 3, 3});
+    }
+    long size = Files.size(source);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (TFRecordWriter writer = new TFRecordWriter(Channels.newChannel(bos), BUFFER_SIZE);
+         FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+      writer.write(new byte[] {4});
+      writer.transferFrom(channel, second, size - second);
+      assertEquals(bos.size(), writer.getPosition());
+    }
+
+    List<byte[]> read = readAll(bos.toByteArray());
+    assertEquals(3, read.size());
+    assertArrayEquals(new byte[] {4}, read.get(0));
+    assertArrayEquals(new byte[] {2, 2}, read.get(1));
+    assertArrayEquals(new byte[] {3, 3, 3}, read.get(2));
+  }
+
+  static Example createExample(int imageSize) {
+    Features features = Features.newBuilder()
+        .putFeature("image/encoded", Feature.newBuilder().setBytesList(
+            BytesList.newBuilder().addValue(ByteString.copyFrom(randomBytes(imageSize)))).build())
+        .putFeature("image/format", Feature.newBuilder().setBytesList(
+            BytesList.newBuilder().addValue(ByteString.copyFromUtf8("jpeg"))).build())
+        .build();
+    return Example.newBuilder().setFeatures(features).build();
+  }
+
+  static byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    return bytes;
+  }
+
+  static List<byte[]> readAll(byte[] file) throws IOException {
+    TFRecordReader reader = new TFRecordReader(new DataInputStream(new ByteArrayInputStream(file)), true);
+    List<byte[]> records = new ArrayList<>();
+    byte[] record;
+    while ((record = reader.read()) != null) {
+      records.add(record);
+    }
+    return records;
+  }
+}